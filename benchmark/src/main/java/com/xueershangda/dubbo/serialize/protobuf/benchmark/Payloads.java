@@ -0,0 +1,112 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基准测试的数据。名字的格式是 类型 或者 类型-个数，比如 list-100。
+ * 读取时使用的 Class 和泛型类型和 Dubbo 按方法签名读取返回值时一样。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:45
+ */
+public final class Payloads {
+
+    /** 基准测试覆盖的全部数据 */
+    public static final String[] NAMES = {
+            "int", "long", "double", "string", "pojo",
+            "list-10", "list-100", "list-1000", "set-100", "map-100", "exception"
+    };
+
+    private final Object value;
+    private final Class<?> type;
+    private final Type genericType;
+
+    private Payloads(Object value, Class<?> type, Type genericType) {
+        this.value = value;
+        this.type = type;
+        this.genericType = genericType;
+    }
+
+    public Object value() {
+        return value;
+    }
+
+    public Class<?> type() {
+        return type;
+    }
+
+    public Type genericType() {
+        return genericType;
+    }
+
+    /**
+     * 异常和 Dubbo 一样用 readObject() 读取，不带类型
+     */
+    public boolean isException() {
+        return value instanceof Throwable;
+    }
+
+    public static Payloads of(String name) throws NoSuchMethodException {
+        String kind = name;
+        int size = 0;
+        int index = name.indexOf('-');
+        if (index > 0) {
+            kind = name.substring(0, index);
+            size = Integer.parseInt(name.substring(index + 1));
+        }
+        switch (kind) {
+            case "int":
+                return new Payloads(123456789, Integer.class, Integer.class);
+            case "long":
+                return new Payloads(1234567890123L, Long.class, Long.class);
+            case "double":
+                return new Payloads(3.1415926, Double.class, Double.class);
+            case "string":
+                return new Payloads("com.xueershangda.dubbo.serialize.protobuf.ProtobufSerialization 基准测试", String.class, String.class);
+            case "pojo":
+                return new Payloads(user(1), User.class, User.class);
+            case "list":
+                List<User> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(user(i));
+                }
+                return new Payloads(list, List.class, UserService.class.getMethod("list").getGenericReturnType());
+            case "set":
+                Set<User> set = new HashSet<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    set.add(user(i));
+                }
+                return new Payloads(set, Set.class, UserService.class.getMethod("set").getGenericReturnType());
+            case "map":
+                Map<String, User> map = new HashMap<>(size * 2);
+                for (int i = 0; i < size; i++) {
+                    map.put("user-" + i, user(i));
+                }
+                return new Payloads(map, Map.class, UserService.class.getMethod("map").getGenericReturnType());
+            case "exception":
+                return new Payloads(new IllegalStateException("User not found, id=10086."),
+                        Throwable.class, Throwable.class);
+            default:
+                throw new IllegalArgumentException("Unknown payload=" + name + ".");
+        }
+    }
+
+    private static User user(int i) {
+        User user = new User();
+        user.setId(100000L + i);
+        user.setName("user-" + i);
+        user.setEmail("user" + i + "@xueershangda.com");
+        user.setAge(20 + i % 50);
+        user.setScore(i * 1.5);
+        user.setActive(i % 2 == 0);
+        user.setTags(Arrays.asList("vip", "level-" + i % 10));
+        return user;
+    }
+}
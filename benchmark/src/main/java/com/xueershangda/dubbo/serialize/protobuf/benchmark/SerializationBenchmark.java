@@ -0,0 +1,74 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 序列化和反序列化的吞吐量。每次调用都新建 ObjectOutput/ObjectInput，和 Dubbo 处理一次请求一样。
+ * <p>
+ * 每次分配的内存用 -prof gc 查看（gc.alloc.rate.norm），报文大小见 {@link WireSize}，setup 时也会打印出来。
+ * 只跑一部分：java -jar benchmarks.jar SerializationBenchmark -p serialization=protobuf,hessian2 -p payload=list-100
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:00
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+    @Param({"protobuf", "protobuf-compact", "protobuf-lz", "protobuf-dict", "hessian2", "fastjson", "java", "compactedjava"})
+    public String serialization;
+
+    @Param({"int", "long", "double", "string", "pojo", "list-10", "list-100", "list-1000", "set-100", "map-100",
+            "exception"})
+    public String payload;
+
+    private Serializations serializations;
+    private Payloads payloads;
+    private byte[] encoded;
+    private ByteArrayOutputStream stream;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        serializations = Serializations.of(serialization);
+        payloads = Payloads.of(payload);
+        encoded = serializations.encode(payloads);
+        stream = new ByteArrayOutputStream(encoded.length);
+        // 先确认能正确解码，结果不对的测试没有意义
+        if (serializations.decode(payloads, encoded) == null) {
+            throw new IllegalStateException(serialization + " can not decode " + payload + ".");
+        }
+        System.out.println();
+        System.out.println("# Wire size: " + serialization + " " + payload + " = " + encoded.length + " bytes");
+    }
+
+    @Benchmark
+    public int encode() throws IOException {
+        stream.reset();
+        serializations.encode(payloads, stream);
+        return stream.size();
+    }
+
+    @Benchmark
+    public Object decode() throws IOException, ClassNotFoundException {
+        return serializations.decode(payloads, encoded);
+    }
+}
@@ -0,0 +1,80 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.common.serialize.Serialization;
+import com.alibaba.dubbo.common.serialize.fastjson.FastJsonSerialization;
+import com.alibaba.dubbo.common.serialize.hessian2.Hessian2Serialization;
+import com.alibaba.dubbo.common.serialize.java.CompactedJavaSerialization;
+import com.alibaba.dubbo.common.serialize.java.JavaSerialization;
+import com.xueershangda.dubbo.serialize.protobuf.ProtobufSerialization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * 参与比较的序列化方式，protobuf 的几种配置通过 URL 参数区分。读写都通过 Dubbo 的 ObjectOutput 和 ObjectInput，
+ * 调用顺序和 Dubbo 编解码返回值时一样。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:50
+ */
+public final class Serializations {
+
+    public static final String[] NAMES = {
+            "protobuf", "protobuf-compact", "protobuf-lz", "protobuf-dict", "hessian2", "fastjson", "java", "compactedjava"
+    };
+
+    private final Serialization serialization;
+    private final URL url;
+
+    private Serializations(Serialization serialization, String parameters) {
+        this.serialization = serialization;
+        this.url = URL.valueOf("dubbo://127.0.0.1:20880/benchmark" + parameters);
+    }
+
+    public static Serializations of(String name) {
+        switch (name) {
+            case "protobuf":
+                return new Serializations(new ProtobufSerialization(), "");
+            case "protobuf-compact":
+                return new Serializations(new ProtobufSerialization(), "?protobuf.compact=true");
+            case "protobuf-lz":
+                return new Serializations(new ProtobufSerialization(), "?protobuf.compressor=lz");
+            case "protobuf-dict":
+                return new Serializations(new ProtobufSerialization(), "?protobuf.dictionary=true");
+            case "hessian2":
+                return new Serializations(new Hessian2Serialization(), "");
+            case "fastjson":
+                return new Serializations(new FastJsonSerialization(), "");
+            case "java":
+                return new Serializations(new JavaSerialization(), "");
+            case "compactedjava":
+                return new Serializations(new CompactedJavaSerialization(), "");
+            default:
+                throw new IllegalArgumentException("Unknown serialization=" + name + ".");
+        }
+    }
+
+    public void encode(Payloads payload, ByteArrayOutputStream stream) throws IOException {
+        ObjectOutput output = serialization.serialize(url, stream);
+        output.writeObject(payload.value());
+        output.flushBuffer();
+    }
+
+    public byte[] encode(Payloads payload) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        encode(payload, stream);
+        return stream.toByteArray();
+    }
+
+    public Object decode(Payloads payload, byte[] data) throws IOException, ClassNotFoundException {
+        ObjectInput input = serialization.deserialize(url, new ByteArrayInputStream(data));
+        if (payload.isException()) {
+            return input.readObject();
+        }
+        return input.readObject(payload.type(), payload.genericType());
+    }
+}
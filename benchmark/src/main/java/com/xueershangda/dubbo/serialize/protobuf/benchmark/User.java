@@ -0,0 +1,78 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 基准测试用的 POJO，字段类型尽量贴近业务接口的返回值。fastjson 需要 getter/setter，hessian 和 java 需要 Serializable。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:40
+ */
+public class User implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long id;
+    private String name;
+    private String email;
+    private int age;
+    private double score;
+    private boolean active;
+    private List<String> tags;
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public void setEmail(String email) {
+        this.email = email;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    public void setActive(boolean active) {
+        this.active = active;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public void setTags(List<String> tags) {
+        this.tags = tags;
+    }
+}
@@ -0,0 +1,20 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 只用来取得返回值的泛型类型，Dubbo 也是按方法签名的返回值类型读取结果。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:42
+ */
+public interface UserService {
+
+    List<User> list();
+
+    Set<User> set();
+
+    Map<String, User> map();
+}
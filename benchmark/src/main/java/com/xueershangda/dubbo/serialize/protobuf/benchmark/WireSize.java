@@ -0,0 +1,30 @@
+package com.xueershangda.dubbo.serialize.protobuf.benchmark;
+
+/**
+ * 打印每种序列化方式、每种数据的报文大小（字节），结果是确定的，不需要跑 JMH。
+ * java -cp benchmarks.jar com.xueershangda.dubbo.serialize.protobuf.benchmark.WireSize
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:05
+ */
+public final class WireSize {
+
+    private WireSize() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        StringBuilder header = new StringBuilder(String.format("%-12s", "payload"));
+        for (String name : Serializations.NAMES) {
+            header.append(String.format("%18s", name));
+        }
+        System.out.println(header);
+        for (String payload : Payloads.NAMES) {
+            Payloads payloads = Payloads.of(payload);
+            StringBuilder line = new StringBuilder(String.format("%-12s", payload));
+            for (String name : Serializations.NAMES) {
+                line.append(String.format("%18d", Serializations.of(name).encode(payloads).length));
+            }
+            System.out.println(line);
+        }
+    }
+}
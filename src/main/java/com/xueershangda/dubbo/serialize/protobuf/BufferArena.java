@@ -0,0 +1,108 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import io.protostuff.LinkedBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 线程私有的缓冲区池。序列化时从当前线程取出 ByteBuffer 和 LinkedBuffer，用完再还回来，避免每次调用都重新分配。
+ * <p>
+ * 取出时缓冲区从池中移除，没有归还（比如序列化中途出了异常）也不会影响下一次使用，只是重新分配一个。
+ * 归还时超过 {@link #MAX_RETAINED_SIZE} 的 ByteBuffer 直接丢弃，大报文过后内存能降下来。
+ *
+ * @author yinlei
+ * @since 2026/10/17 11:20
+ */
+final class BufferArena {
+
+    /** ByteBuffer 初始大小 */
+    static final int INITIAL_SIZE = 1024;
+
+    /**
+     * 归还时 ByteBuffer 和临时数组能被保留的最大容量，超过就丢弃。
+     * 每个线程最多保留一个 ByteBuffer 和一个临时数组，也就是 128K 左右；Dubbo 默认200个业务线程加上 IO 线程，
+     * 最多占用30M左右。大多数报文远小于这个值，更大的报文每次重新分配。
+     */
+    static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+    /** LinkedBuffer 每一段的大小 */
+    static final int LINKED_BUFFER_SIZE = 1024;
+
+    private static final ThreadLocal<BufferArena> ARENA = new ThreadLocal<BufferArena>() {
+        @Override
+        protected BufferArena initialValue() {
+            return new BufferArena();
+        }
+    };
+
+    private ByteBuffer byteBuffer;
+    private LinkedBuffer linkedBuffer;
+    /** 压缩时的临时数组 */
+    private byte[] scratch;
+
+    private BufferArena() {
+    }
+
+    static BufferArena current() {
+        return ARENA.get();
+    }
+
+    ByteBuffer acquireByteBuffer() {
+        ByteBuffer buffer = byteBuffer;
+        if (buffer == null) {
+            return ByteBuffer.allocate(INITIAL_SIZE);
+        }
+        byteBuffer = null;
+        buffer.clear();
+        return buffer;
+    }
+
+    void releaseByteBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() <= MAX_RETAINED_SIZE) {
+            byteBuffer = buffer;
+        }
+    }
+
+    LinkedBuffer acquireLinkedBuffer() {
+        LinkedBuffer buffer = linkedBuffer;
+        if (buffer == null) {
+            return LinkedBuffer.allocate(LINKED_BUFFER_SIZE);
+        }
+        linkedBuffer = null;
+        return buffer;
+    }
+
+    void releaseLinkedBuffer(LinkedBuffer buffer) {
+        // clear 会丢掉后面扩展出来的段，只保留第一段
+        linkedBuffer = buffer.clear();
+    }
+
+    /**
+     * 取得一个至少size大小的临时数组，内容不确定
+     */
+    byte[] acquireScratch(int size) {
+        byte[] array = scratch;
+        if (array == null || array.length < size) {
+            return new byte[Math.max(size, INITIAL_SIZE)];
+        }
+        scratch = null;
+        return array;
+    }
+
+    void releaseScratch(byte[] array) {
+        if (array.length <= MAX_RETAINED_SIZE) {
+            scratch = array;
+        }
+    }
+
+    /**
+     * 扩容后的大小：至少翻倍，避免大报文反复分配和拷贝。
+     *
+     * @param capacity 当前容量
+     * @param required 需要的最小容量
+     */
+    static int grow(int capacity, int required) {
+        int cap = Math.max(capacity << 1, required);
+        return cap < 0 ? Integer.MAX_VALUE : cap;
+    }
+}
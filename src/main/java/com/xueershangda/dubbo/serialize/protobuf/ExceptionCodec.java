@@ -0,0 +1,297 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 异常帧（{@link ProtobufConstants#EXCEPTION}）的编解码。数据格式（整数都是varint）：
+ * <pre>
+ * 字符串个数，每个字符串：长度 + UTF-8
+ * 异常个数（自己和cause链），每个异常：类名下标，message下标+1（0表示null），栈帧个数，
+ *     每个栈帧：类名下标，方法名下标，文件名下标+1，行号（zigzag）
+ * </pre>
+ * 类名、方法名、文件名放在字符串表中，重复的只写一次。
+ * <p>
+ * 读取时还原成原来的异常类型：每个类的构造函数只查找一次并缓存，依次找 (String, Throwable)、(String)、()。
+ * 总是通过构造函数创建，异常类自己的字段（错误码等）和不创建实例时不一样，都是初始化过的。
+ * 构造函数中仍然会执行一次本地的 fillInStackTrace，然后再用 setStackTrace 换成对方的栈。
+ * 类不存在或者不是 Throwable 时和原来一样返回 RuntimeException。
+ * <p>
+ * 类名是对方写的，找不到的类不缓存，缓存最多 {@link #MAX_FACTORIES} 个类，满了之后每次都重新查找，不能无限增长。
+ *
+ * @author yinlei
+ * @since 2026/10/17 17:10
+ */
+final class ExceptionCodec {
+
+    private static final Logger LOGGER = LogManager.getLogger(ExceptionCodec.class);
+
+    /** cause链最多写入多少层 */
+    static final int MAX_CAUSES = 8;
+    /** 每个异常最多写入多少个栈帧 */
+    static final int MAX_FRAMES = 64;
+
+    private static final StackTraceElement[] EMPTY_STACK = new StackTraceElement[0];
+
+    /** 最多缓存多少个异常类的创建方式 */
+    static final int MAX_FACTORIES = 512;
+
+    /** 类名 -> 创建方式，只缓存能创建的异常类 */
+    private static final ConcurrentMap<String, Factory> FACTORIES = new ConcurrentHashMap<>();
+    private static final Factory NOT_THROWABLE = new Factory(null, 0);
+
+    private ExceptionCodec() {
+    }
+
+    /**
+     * 写入时先收集所有的字符串，算出长度，再一次写入 ByteBuffer
+     */
+    static final class Encoder {
+        private final Map<String, Integer> index = new HashMap<>();
+        private final List<byte[]> strings = new ArrayList<>();
+        private int[] refs = new int[32];
+        private int refCount;
+        private int size;
+
+        Encoder(Throwable throwable, boolean withStack) {
+            List<Throwable> chain = new ArrayList<>();
+            Map<Throwable, Boolean> seen = new IdentityHashMap<>();
+            for (Throwable t = throwable; t != null && chain.size() < MAX_CAUSES && seen.put(t, true) == null;
+                 t = t.getCause()) {
+                chain.add(t);
+            }
+            ref(chain.size());
+            for (Throwable t : chain) {
+                ref(string(t.getClass().getName()));
+                ref(t.getMessage() == null ? 0 : string(t.getMessage()) + 1);
+                StackTraceElement[] stack = withStack ? t.getStackTrace() : EMPTY_STACK;
+                int frames = Math.min(stack.length, MAX_FRAMES);
+                ref(frames);
+                for (int i = 0; i < frames; i++) {
+                    StackTraceElement e = stack[i];
+                    ref(string(e.getClassName()));
+                    ref(string(e.getMethodName()));
+                    ref(e.getFileName() == null ? 0 : string(e.getFileName()) + 1);
+                    ref(Varints.encodeZigZag32(e.getLineNumber()));
+                }
+            }
+            size += Varints.varIntSize(strings.size());
+        }
+
+        private int string(String s) {
+            Integer i = index.get(s);
+            if (i == null) {
+                i = strings.size();
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                strings.add(bytes);
+                index.put(s, i);
+                size += Varints.varIntSize(bytes.length) + bytes.length;
+            }
+            return i;
+        }
+
+        private void ref(int value) {
+            if (refCount == refs.length) {
+                int[] array = new int[refs.length * 2];
+                System.arraycopy(refs, 0, array, 0, refCount);
+                refs = array;
+            }
+            refs[refCount++] = value;
+            size += Varints.varIntSize(value);
+        }
+
+        /**
+         * 编码后的长度
+         */
+        int size() {
+            return size;
+        }
+
+        void writeTo(ByteBuffer buffer) {
+            Varints.putVarInt(buffer, strings.size());
+            for (byte[] bytes : strings) {
+                Varints.putVarInt(buffer, bytes.length);
+                buffer.put(bytes);
+            }
+            for (int i = 0; i < refCount; i++) {
+                Varints.putVarInt(buffer, refs[i]);
+            }
+        }
+    }
+
+    /**
+     * 读取一个异常帧，读完之后 buffer 的位置正好在帧的末尾
+     */
+    static Throwable decode(ByteBuffer buffer, int length) throws IOException {
+        int end = buffer.position() + length;
+        try {
+            int count = Varints.getVarInt(buffer);
+            if (count < 0 || count > length) {
+                throw new IOException("Illegal exception frame, strings=" + count + ".");
+            }
+            String[] strings = new String[count];
+            for (int i = 0; i < count; i++) {
+                int len = Varints.getVarInt(buffer);
+                if (len < 0 || len > end - buffer.position()) {
+                    throw new IOException("Illegal exception frame, string length=" + len + ".");
+                }
+                strings[i] = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), len,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + len);
+            }
+            int depth = Varints.getVarInt(buffer);
+            if (depth < 1 || depth > MAX_CAUSES) {
+                throw new IOException("Illegal exception frame, depth=" + depth + ".");
+            }
+            String[] classNames = new String[depth];
+            String[] messages = new String[depth];
+            StackTraceElement[][] stacks = new StackTraceElement[depth][];
+            for (int i = 0; i < depth; i++) {
+                classNames[i] = string(strings, Varints.getVarInt(buffer));
+                int message = Varints.getVarInt(buffer);
+                messages[i] = message == 0 ? null : string(strings, message - 1);
+                int frames = Varints.getVarInt(buffer);
+                if (frames < 0 || frames > MAX_FRAMES) {
+                    throw new IOException("Illegal exception frame, frames=" + frames + ".");
+                }
+                StackTraceElement[] stack = frames == 0 ? EMPTY_STACK : new StackTraceElement[frames];
+                for (int j = 0; j < frames; j++) {
+                    String declaringClass = string(strings, Varints.getVarInt(buffer));
+                    String method = string(strings, Varints.getVarInt(buffer));
+                    int file = Varints.getVarInt(buffer);
+                    int line = Varints.decodeZigZag32(Varints.getVarInt(buffer));
+                    stack[j] = new StackTraceElement(declaringClass, method,
+                            file == 0 ? null : string(strings, file - 1), line);
+                }
+                stacks[i] = stack;
+            }
+            // 从最里层的cause开始创建
+            Throwable cause = null;
+            for (int i = depth - 1; i >= 0; i--) {
+                cause = newThrowable(classNames[i], messages[i], cause, stacks[i]);
+            }
+            return cause;
+        } catch (RuntimeException e) { // 数据不完整
+            throw new IOException("Illegal exception frame.", e);
+        } finally {
+            buffer.position(end);
+        }
+    }
+
+    private static String string(String[] strings, int index) throws IOException {
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Illegal exception frame, string index=" + index + ".");
+        }
+        return strings[index];
+    }
+
+    /**
+     * 还原异常，类不存在或者不能创建时返回 RuntimeException(className;message=message)
+     */
+    static Throwable newThrowable(String className, String message, Throwable cause, StackTraceElement[] stack) {
+        Factory factory = factory(className);
+        Throwable throwable = null;
+        if (factory != NOT_THROWABLE) {
+            try {
+                throwable = factory.create(message, cause, stack);
+            } catch (Exception | LinkageError e) {
+                if (LOGGER.isWarnEnabled()) {
+                    LOGGER.warn("Create exception error, className=[{}], msg=[{}].", className, e.getMessage());
+                }
+            }
+        }
+        if (throwable == null) {
+            throwable = new RuntimeException(className + ";message=" + message, cause);
+            throwable.setStackTrace(stack);
+        }
+        return throwable;
+    }
+
+    private static Factory factory(String className) {
+        Factory factory = FACTORIES.get(className);
+        if (factory == null) {
+            factory = lookup(className);
+            if (factory == NOT_THROWABLE || FACTORIES.size() >= MAX_FACTORIES) {
+                return factory;
+            }
+            Factory old = FACTORIES.putIfAbsent(className, factory);
+            if (old != null) {
+                factory = old;
+            }
+        }
+        return factory;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Factory lookup(String className) {
+        Class<?> cls;
+        try {
+            ClassLoader loader = Thread.currentThread().getContextClassLoader();
+            cls = Class.forName(className, false, loader != null ? loader : ExceptionCodec.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError e) {
+            return NOT_THROWABLE;
+        }
+        if (!Throwable.class.isAssignableFrom(cls)) { // 不创建任意的类
+            return NOT_THROWABLE;
+        }
+        Class<? extends Throwable> type = (Class<? extends Throwable>) cls;
+        Class<?>[][] signatures = {{String.class, Throwable.class}, {String.class}, {}};
+        for (Class<?>[] signature : signatures) {
+            try {
+                Constructor<? extends Throwable> constructor = type.getConstructor(signature);
+                return new Factory(constructor, signature.length);
+            } catch (NoSuchMethodException e) {
+                // 下一个
+            }
+        }
+        return NOT_THROWABLE;
+    }
+
+    /**
+     * 一个异常类的创建方式
+     */
+    private static final class Factory {
+        private final Constructor<? extends Throwable> constructor;
+        private final int parameters;
+
+        Factory(Constructor<? extends Throwable> constructor, int parameters) {
+            this.constructor = constructor;
+            this.parameters = parameters;
+        }
+
+        Throwable create(String message, Throwable cause, StackTraceElement[] stack) throws Exception {
+            Throwable throwable;
+            switch (parameters) {
+                case 2:
+                    throwable = constructor.newInstance(message, cause);
+                    break;
+                case 1:
+                    throwable = constructor.newInstance(message);
+                    break;
+                default:
+                    throwable = constructor.newInstance();
+            }
+            if (cause != null && throwable.getCause() == null) {
+                try {
+                    throwable.initCause(cause);
+                } catch (IllegalStateException e) {
+                    // 构造函数中已经设置过了
+                }
+            }
+            throwable.setStackTrace(stack);
+            return throwable;
+        }
+    }
+}
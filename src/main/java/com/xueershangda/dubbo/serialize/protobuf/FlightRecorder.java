@@ -0,0 +1,197 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 抽样记录帧的形状（类型、对象类型、长度、耗时），放在一个固定大小的环形缓冲区中，新的覆盖旧的，
+ * 需要时通过 JMX（{@link #OBJECT_NAME}）或者 {@link #events()} 导出。代替逐个调用的 debug 日志，线上也可以一直开着。
+ * <p>
+ * 写入不加锁：先用 AtomicLong 取得序号，再放到对应的槽中。开关和采样率是独立的，关闭 {@link SerializationMetrics}
+ * 的统计时照常记录；{@link SerializationMetrics} 按两者中较高的采样率计时，这里再从计时的调用中按自己的采样率记录。
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:50
+ */
+public final class FlightRecorder implements FlightRecorderMXBean {
+
+    public static final String OBJECT_NAME = "com.xueershangda.dubbo:type=ProtobufSerialization,name=FlightRecorder";
+
+    /** 环形缓冲区的大小，2的幂 */
+    static final int CAPACITY = 1024;
+
+    private static final FlightRecorder INSTANCE = new FlightRecorder();
+
+    static {
+        SerializationMetrics.registerMBean(INSTANCE, OBJECT_NAME);
+    }
+
+    private final AtomicReferenceArray<Event> events = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLong sequence = new AtomicLong();
+    private volatile boolean enabled = true;
+    private volatile int sampleMask = 255;
+
+    private FlightRecorder() {
+    }
+
+    public static FlightRecorder getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 记录一次抽中计时的调用，再按照两个采样率的比例决定是否记录
+     *
+     * @param timedRate 计时的采样率，不大于自己的采样率
+     */
+    void record(boolean encode, byte tag, Class<?> cls, long bytes, long nanos, int timedRate) {
+        if (!enabled) {
+            return;
+        }
+        int mask = sampleMask / timedRate; // 都是2的幂，计时的调用中每几次记录一次
+        if (mask > 0 && (ThreadLocalRandom.current().nextInt() & mask) != 0) {
+            return;
+        }
+        long seq = sequence.getAndIncrement();
+        Event event = new Event(seq, System.currentTimeMillis(), Thread.currentThread().getName(), encode, tag,
+                cls == null ? null : cls.getName(), bytes, nanos);
+        events.set((int) (seq & (CAPACITY - 1)), event);
+    }
+
+    /**
+     * 按时间顺序返回缓冲区中的记录，导出的同时还在写入的话，最旧的几条可能已经被覆盖，跳过
+     */
+    public List<Event> events() {
+        long end = sequence.get();
+        long start = Math.max(0, end - CAPACITY);
+        List<Event> result = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            Event event = events.get((int) (seq & (CAPACITY - 1)));
+            if (event != null && event.sequence == seq) {
+                result.add(event);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> dump() {
+        List<Event> list = events();
+        List<String> result = new ArrayList<>(list.size());
+        for (Event event : list) {
+            result.add(event.toString());
+        }
+        return result;
+    }
+
+    @Override
+    public int getCapacity() {
+        return CAPACITY;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleMask + 1;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("Sample rate must be a power of two, sampleRate=" + sampleRate + ".");
+        }
+        this.sampleMask = sampleRate - 1;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < CAPACITY; i++) {
+            events.set(i, null);
+        }
+    }
+
+    /**
+     * 一条记录，创建后不再修改
+     */
+    public static final class Event {
+        private final long sequence;
+        private final long timestamp;
+        private final String thread;
+        private final boolean encode;
+        private final byte tag;
+        private final String className;
+        private final long length;
+        private final long nanos;
+
+        Event(long sequence, long timestamp, String thread, boolean encode, byte tag, String className,
+              long length, long nanos) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.thread = thread;
+            this.encode = encode;
+            this.tag = tag;
+            this.className = className;
+            this.length = length;
+            this.nanos = nanos;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getThread() {
+            return thread;
+        }
+
+        public boolean isEncode() {
+            return encode;
+        }
+
+        /**
+         * 类型字节
+         */
+        public byte getTag() {
+            return tag;
+        }
+
+        public String getFrameType() {
+            return SerializationMetrics.frameType(tag);
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * 帧的长度（字节）
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS").format(new Date(timestamp))
+                    + " [" + thread + "] " + (encode ? "encode" : "decode")
+                    + " tag=" + tag + "(" + getFrameType() + ")"
+                    + " class=" + className + " length=" + length + " time=" + nanos / 1000.0 + "us";
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.util.List;
+
+/**
+ * 抽样记录的 JMX 接口，ObjectName 见 {@link FlightRecorder#OBJECT_NAME}。
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:50
+ */
+public interface FlightRecorderMXBean {
+
+    /**
+     * 按时间顺序导出记录，每条一行
+     */
+    List<String> dump();
+
+    int getCapacity();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * 每多少次调用记录一次，2的幂
+     */
+    int getSampleRate();
+
+    void setSampleRate(int sampleRate);
+
+    void clear();
+}
@@ -0,0 +1,36 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.io.IOException;
+
+/**
+ * 帧压缩算法。实现类通过 {@link FrameCompressors#register(String, FrameCompressor)} 注册，
+ * URL 上用 {@link ProtobufConstants#COMPRESSOR_KEY} 按名字选用。实现必须是线程安全的。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:10
+ */
+public interface FrameCompressor {
+
+    /**
+     * 写在压缩帧中的算法编号，读取时按它找到解压的算法，不能重复
+     */
+    byte id();
+
+    /**
+     * 长度为length的数据压缩后最大可能的长度
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * 压缩数据
+     *
+     * @return 压缩后的长度
+     */
+    int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset);
+
+    /**
+     * 解压数据，解压后的长度必须正好是rawLength
+     */
+    void decompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset, int rawLength)
+            throws IOException;
+}
@@ -0,0 +1,55 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 帧压缩算法的注册表。内置了纯 Java 实现的 LZ 算法，名字是 {@link #LZ}。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:10
+ */
+public final class FrameCompressors {
+
+    public static final String LZ = "lz";
+
+    private static final ConcurrentMap<String, FrameCompressor> BY_NAME = new ConcurrentHashMap<>();
+    private static final AtomicReferenceArray<FrameCompressor> BY_ID = new AtomicReferenceArray<>(256);
+
+    static {
+        register(LZ, new LzFrameCompressor());
+    }
+
+    private FrameCompressors() {
+    }
+
+    public static synchronized void register(String name, FrameCompressor compressor) {
+        int id = compressor.id() & 0xFF;
+        FrameCompressor old = BY_ID.get(id);
+        // 同一个名字可以替换，不同的名字不能使用相同的编号
+        if (old != null && old != BY_NAME.get(name)) {
+            throw new IllegalArgumentException("Duplicate compressor id=" + id + ", name=" + name + ".");
+        }
+        BY_ID.set(id, compressor);
+        BY_NAME.put(name, compressor);
+    }
+
+    /**
+     * @param name 算法名字，为空时返回null，表示不压缩
+     */
+    public static FrameCompressor get(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        FrameCompressor compressor = BY_NAME.get(name);
+        if (compressor == null) {
+            throw new IllegalArgumentException("Unknown compressor=" + name + ".");
+        }
+        return compressor;
+    }
+
+    static FrameCompressor get(byte id) {
+        return BY_ID.get(id & 0xFF);
+    }
+}
@@ -0,0 +1,167 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import io.protostuff.ByteArrayInput;
+import io.protostuff.Schema;
+import io.protostuff.WireFormat;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * 延迟解码的 List，反序列化较大的 List 结果时使用（见 {@link ProtobufConstants#LAZY_KEY}）。
+ * 读取时只扫描一遍原始数据，记下每个元素的位置，元素在第一次 get 时才用 Schema 解码，解码后缓存起来。
+ * 只翻看前几条或者只遍历一次的调用方，首个元素的延迟和堆的峰值不再和结果的大小成正比。
+ * <p>
+ * 可以修改，第一次修改（add、remove、set）时解码剩下的所有元素，以后就是一个普通的 ArrayList。
+ * 和 ArrayList 一样不是线程安全的。
+ *
+ * @author yinlei
+ * @since 2026/10/17 19:20
+ */
+final class LazyMessageList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /** 集合的元素是字段1，嵌套的对象按 group 写入 */
+    private static final int ELEMENT_TAG = WireFormat.makeTag(1, WireFormat.WIRETYPE_START_GROUP);
+
+    private byte[] data;
+    private final int frameStart;
+    /** 第i个元素的数据是 [bounds[2i], bounds[2i + 1])，不包括结束 group 的tag */
+    private final int[] bounds;
+    private final Schema<T> schema;
+    private final boolean references;
+    private final boolean intern;
+    /** 已经解码的元素 */
+    private Object[] elements;
+    private final int size;
+    /** 修改过之后所有的操作都交给它 */
+    private List<T> delegate;
+
+    private LazyMessageList(byte[] data, int frameStart, int[] bounds, int size, Schema<T> schema, boolean references,
+                            boolean intern) {
+        this.data = data;
+        this.frameStart = frameStart;
+        this.bounds = bounds;
+        this.size = size;
+        this.schema = schema;
+        this.references = references;
+        this.intern = intern;
+        this.elements = new Object[size];
+    }
+
+    /**
+     * 扫描一个集合帧，建立元素的索引。data 在 List 的整个生命周期内都会被引用，不能再被修改。
+     *
+     * @param references 帧中是否有字符串引用，见 {@link StringDictionary}
+     * @param intern 字符串是否经过缓存，见 {@link Utf8}
+     * @param expectedSize 帧头中的元素个数，0表示不知道
+     */
+    static <T> LazyMessageList<T> index(byte[] data, int offset, int length, Schema<T> schema, boolean references,
+                                        boolean intern, int expectedSize) throws IOException {
+        ByteArrayInput input = new ByteArrayInput(data, offset, length, true);
+        // 每个元素至少占2个字节，元素个数超过这个数说明数据不对，不按它分配
+        int[] bounds = new int[2 * Math.max(8, Math.min(expectedSize, length / 2))];
+        int size = 0;
+        for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+            if (tag != ELEMENT_TAG) { // 和 MessageCollectionSchema 一样跳过不认识的字段
+                input.skipField(tag);
+                continue;
+            }
+            int start = input.currentOffset();
+            input.skipField(tag); // 跳过整个group，校验结束的tag
+            if (size * 2 == bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[size * 2] = start;
+            bounds[size * 2 + 1] = input.currentOffset() - 1; // 结束tag只有1个字节
+            size++;
+        }
+        return new LazyMessageList<>(data, offset, bounds, size, schema, references, intern);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (delegate != null) {
+            return delegate.get(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        Object element = elements[index];
+        if (element == null) {
+            element = decode(index);
+            elements[index] = element;
+        }
+        return (T) element;
+    }
+
+    private T decode(int index) {
+        int start = bounds[index * 2];
+        int length = bounds[index * 2 + 1] - start;
+        T message = schema.newMessage();
+        try {
+            if (references || intern) {
+                StringDictionary.mergeFrom(data, frameStart, start, length, message, schema, references, intern);
+            } else {
+                ByteArrayInput input = new ByteArrayInput(data, start, length, true);
+                schema.mergeFrom(input, message);
+                input.checkLastTagWas(0);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Decode element " + index + " failed.", e);
+        }
+        return message;
+    }
+
+    /**
+     * 解码所有的元素，以后不再引用原始数据
+     */
+    private List<T> materialize() {
+        if (delegate == null) {
+            List<T> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(get(i));
+            }
+            delegate = list;
+            data = null;
+            elements = null;
+        }
+        return delegate;
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return materialize().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        materialize().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public T remove(int index) {
+        T old = materialize().remove(index);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return delegate != null ? delegate.size() : size;
+    }
+
+    /**
+     * Java 序列化时写成一个 ArrayList
+     */
+    private Object writeReplace() {
+        return new ArrayList<>(this);
+    }
+}
@@ -0,0 +1,194 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * 纯 Java 的 LZ77 压缩，数据格式和 LZ4 的 block 格式相同：每个序列由一个 token 开始，高4位是字面量长度，
+ * 低4位是匹配长度减4，等于15时后面跟着若干个255和一个小于255的字节；然后是字面量，2个字节（小端）的回溯距离。
+ * 最后一个序列只有字面量。
+ * <p>
+ * 只用一个4字节序列的哈希表查找匹配，压缩率不如 LZ4 HC，但是速度快，对重复的集合数据效果很好。
+ *
+ * @author yinlei
+ * @since 2026/10/17 15:10
+ */
+final class LzFrameCompressor implements FrameCompressor {
+
+    private static final int MIN_MATCH = 4;
+    /** 最后5个字节只能是字面量 */
+    private static final int LAST_LITERALS = 5;
+    /** 最后一个匹配必须在结束前12个字节之前开始 */
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 14;
+    /** 连续多少次没有匹配之后加大步长，不可压缩的数据可以快速跳过 */
+    private static final int SKIP_TRIGGER = 6;
+
+    /** 哈希表存放的是位置 + 1，0表示没有 */
+    private static final ThreadLocal<int[]> HASH_TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    @Override
+    public byte id() {
+        return 1;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    @Override
+    public int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+        int end = srcOffset + length;
+        int d = destOffset;
+        int anchor = srcOffset;
+        if (length >= MF_LIMIT + 1) {
+            int[] table = HASH_TABLE.get();
+            Arrays.fill(table, 0);
+            int matchLimit = end - LAST_LITERALS;
+            int mfLimit = end - MF_LIMIT;
+            int p = srcOffset;
+            int misses = 0;
+            while (p < mfLimit) {
+                int sequence = readInt(src, p);
+                int h = hash(sequence);
+                int ref = table[h] - 1 + srcOffset;
+                table[h] = p - srcOffset + 1;
+                if (ref < srcOffset || p - ref > MAX_DISTANCE || readInt(src, ref) != sequence) {
+                    p += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                // 向前扩展匹配
+                int matchLength = MIN_MATCH;
+                while (p + matchLength < matchLimit && src[ref + matchLength] == src[p + matchLength]) {
+                    matchLength++;
+                }
+                d = writeSequence(src, anchor, p - anchor, p - ref, matchLength, dest, d);
+                p += matchLength;
+                anchor = p;
+            }
+        }
+        // 剩下的都是字面量
+        int literalLength = end - anchor;
+        d = writeToken(literalLength, 0, dest, d);
+        System.arraycopy(src, anchor, dest, d, literalLength);
+        return d + literalLength - destOffset;
+    }
+
+    private static int writeSequence(byte[] src, int literalStart, int literalLength, int distance, int matchLength,
+                                     byte[] dest, int d) {
+        int matchCode = matchLength - MIN_MATCH;
+        d = writeToken(literalLength, matchCode, dest, d);
+        System.arraycopy(src, literalStart, dest, d, literalLength);
+        d += literalLength;
+        dest[d++] = (byte) distance;
+        dest[d++] = (byte) (distance >>> 8);
+        if (matchCode >= 15) {
+            d = writeLength(matchCode - 15, dest, d);
+        }
+        return d;
+    }
+
+    /**
+     * 写入token和扩展的字面量长度
+     */
+    private static int writeToken(int literalLength, int matchCode, byte[] dest, int d) {
+        int token = (Math.min(literalLength, 15) << 4) | Math.min(matchCode, 15);
+        dest[d++] = (byte) token;
+        if (literalLength >= 15) {
+            d = writeLength(literalLength - 15, dest, d);
+        }
+        return d;
+    }
+
+    private static int writeLength(int length, byte[] dest, int d) {
+        while (length >= 255) {
+            dest[d++] = (byte) 255;
+            length -= 255;
+        }
+        dest[d++] = (byte) length;
+        return d;
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset, int rawLength)
+            throws IOException {
+        int s = srcOffset;
+        int srcEnd = srcOffset + length;
+        int d = destOffset;
+        int destEnd = destOffset + rawLength;
+        while (s < srcEnd) {
+            int token = src[s++] & 0xFF;
+            int literalLength = token >>> 4;
+            if (literalLength == 15) {
+                int b;
+                do {
+                    checkBounds(s, srcEnd);
+                    b = src[s++] & 0xFF;
+                    literalLength += b;
+                } while (b == 255);
+            }
+            if (literalLength > srcEnd - s || literalLength > destEnd - d) {
+                throw new IOException("Malformed compressed frame, literal out of bounds.");
+            }
+            System.arraycopy(src, s, dest, d, literalLength);
+            s += literalLength;
+            d += literalLength;
+            if (s == srcEnd) { // 最后一个序列
+                break;
+            }
+
+            checkBounds(s + 1, srcEnd);
+            int distance = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8;
+            s += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int b;
+                do {
+                    checkBounds(s, srcEnd);
+                    b = src[s++] & 0xFF;
+                    matchLength += b;
+                } while (b == 255);
+            }
+            matchLength += MIN_MATCH;
+            int ref = d - distance;
+            if (distance == 0 || ref < destOffset || matchLength > destEnd - d) {
+                throw new IOException("Malformed compressed frame, match out of bounds.");
+            }
+            if (distance >= matchLength) {
+                System.arraycopy(dest, ref, dest, d, matchLength);
+                d += matchLength;
+            } else {
+                // 重叠的匹配只能逐个字节复制
+                for (int i = 0; i < matchLength; i++) {
+                    dest[d++] = dest[ref + i];
+                }
+            }
+        }
+        if (d != destEnd) {
+            throw new IOException("Malformed compressed frame, expect " + rawLength + " bytes but "
+                    + (d - destOffset) + ".");
+        }
+    }
+
+    private static void checkBounds(int index, int end) throws IOException {
+        if (index >= end) {
+            throw new IOException("Malformed compressed frame, unexpected end.");
+        }
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+}
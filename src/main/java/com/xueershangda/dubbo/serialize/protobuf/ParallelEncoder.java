@@ -0,0 +1,211 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 较大的集合和 Map 的并行编码（见 {@link ProtobufConstants#PARALLEL_KEY}）。把元素分成几段，
+ * 第一段在调用线程上编码，其余的交给专用的 ForkJoinPool，每一段用所在线程的 LinkedBuffer 编码成一个数组，
+ * 最后按顺序拼接起来。
+ * <p>
+ * 集合和 Map 的数据是重复的字段1，分段编码再拼接和整体编码的结果完全相同，读取的一方不需要任何改动。
+ * 字符串字典（{@link StringDictionary}）引用的是帧中前面的位置，不能分段，打开字典时不使用并行编码。
+ * <p>
+ * 线程池在第一次使用时按当时 URL 上的 {@link ProtobufConstants#PARALLEL_THREADS_KEY} 创建，整个进程共用，线程都是守护线程。
+ *
+ * @author yinlei
+ * @since 2026/10/17 21:40
+ */
+final class ParallelEncoder {
+
+    /** 每一段最少的元素个数，再少分段的开销就超过了编码本身 */
+    static final int MIN_RANGE_SIZE = 512;
+
+    private static volatile ForkJoinPool pool;
+
+    private ParallelEncoder() {
+    }
+
+    /**
+     * @return 元素个数达到阈值的集合或者 Map
+     */
+    static boolean accepts(Object obj, int threshold) {
+        if (obj instanceof Collection) {
+            return ((Collection<?>) obj).size() >= threshold;
+        }
+        return obj instanceof Map && ((Map<?, ?>) obj).size() >= threshold;
+    }
+
+    /**
+     * 分段编码 obj，按顺序写入 out。
+     *
+     * @param buffer 调用线程编码第一段使用的 LinkedBuffer，返回时已经清空
+     * @param threads 线程池还没有创建时使用的线程数
+     * @return 写入的字节数
+     */
+    @SuppressWarnings("unchecked")
+    static int encode(Object obj, Schema<?> schema, OutputStream out, LinkedBuffer buffer, int threads)
+            throws IOException {
+        ForkJoinPool pool = pool(threads);
+        final List<?> elements;
+        final Map.Entry<?, ?>[] entries;
+        int size;
+        if (obj instanceof Map) {
+            elements = null;
+            entries = ((Map<?, ?>) obj).entrySet().toArray(new Map.Entry<?, ?>[0]);
+            size = entries.length;
+        } else {
+            Collection<?> collection = (Collection<?>) obj;
+            elements = collection instanceof List && collection instanceof RandomAccess ? (List<?>) collection
+                    : Arrays.asList(collection.toArray());
+            entries = null;
+            size = elements.size();
+        }
+        int ranges = Math.max(1, Math.min(pool.getParallelism() + 1, size / MIN_RANGE_SIZE));
+        ForkJoinTask<byte[]>[] tasks = new ForkJoinTask[ranges];
+        for (int i = 1; i < ranges; i++) {
+            tasks[i] = pool.submit(new RangeTask(elements, entries, size * i / ranges, size * (i + 1) / ranges,
+                    (Schema<Object>) schema));
+        }
+        int length;
+        try {
+            byte[] first = new RangeTask(elements, entries, 0, size / ranges, (Schema<Object>) schema).encode(buffer);
+            out.write(first);
+            length = first.length;
+            for (int i = 1; i < ranges; i++) {
+                byte[] data = tasks[i].get();
+                out.write(data);
+                length += data.length;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Parallel encode interrupted.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Parallel encode failed.", cause);
+        } finally {
+            for (int i = 1; i < ranges; i++) {
+                tasks[i].cancel(false); // 出错时不再编码剩下的段，已经完成的不受影响
+            }
+        }
+        return length;
+    }
+
+    private static ForkJoinPool pool(int threads) {
+        ForkJoinPool p = pool;
+        if (p == null) {
+            synchronized (ParallelEncoder.class) {
+                p = pool;
+                if (p == null) {
+                    p = new ForkJoinPool(Math.max(1, threads), new EncoderThreadFactory(), null, false);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 编码一段元素：集合是 [from, to) 的元素，Map 是 [from, to) 的 entry
+     */
+    private static final class RangeTask implements Callable<byte[]> {
+        private final List<?> elements;
+        private final Map.Entry<?, ?>[] entries;
+        private final int from;
+        private final int to;
+        private final Schema<Object> schema;
+
+        RangeTask(List<?> elements, Map.Entry<?, ?>[] entries, int from, int to, Schema<Object> schema) {
+            this.elements = elements;
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+            this.schema = schema;
+        }
+
+        @Override
+        public byte[] call() {
+            BufferArena arena = BufferArena.current();
+            LinkedBuffer buffer = arena.acquireLinkedBuffer();
+            try {
+                return encode(buffer);
+            } finally {
+                arena.releaseLinkedBuffer(buffer);
+            }
+        }
+
+        byte[] encode(LinkedBuffer buffer) {
+            Object range = elements != null ? elements.subList(from, to) : new EntryRange(entries, from, to);
+            try {
+                return ProtostuffIOUtil.toByteArray(range, schema, buffer);
+            } finally {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * 一段 entry 组成的只读 Map，MapSchema 写入时只用到 entrySet
+     */
+    private static final class EntryRange extends AbstractMap<Object, Object> {
+        private final List<Map.Entry<?, ?>> entries;
+
+        EntryRange(Map.Entry<?, ?>[] entries, int from, int to) {
+            this.entries = Arrays.asList(entries).subList(from, to);
+        }
+
+        @Override
+        public Set<Entry<Object, Object>> entrySet() {
+            return new AbstractSet<Entry<Object, Object>>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Iterator<Entry<Object, Object>> iterator() {
+                    return (Iterator<Entry<Object, Object>>) (Iterator<?>) entries.iterator();
+                }
+
+                @Override
+                public int size() {
+                    return entries.size();
+                }
+            };
+        }
+    }
+
+    private static final class EncoderThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+            ForkJoinWorkerThread thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setName("protobuf-encoder-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
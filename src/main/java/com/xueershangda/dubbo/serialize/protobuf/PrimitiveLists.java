@@ -0,0 +1,199 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * 底层是基本类型数组的 List，反序列化 List&lt;Integer&gt;、List&lt;Long&gt;、List&lt;Double&gt; 时使用，
+ * 读取时整块拷贝，不用逐个装箱；再次序列化时直接写出底层数组。
+ * <p>
+ * 和 ArrayList 一样可以修改，只是不能放入null。
+ *
+ * @author yinlei
+ * @since 2026/10/17 14:30
+ */
+final class PrimitiveLists {
+
+    private PrimitiveLists() {
+    }
+
+    private static int grow(int capacity, int required) {
+        return Math.max(capacity + (capacity >> 1) + 1, required);
+    }
+
+    static final class IntList extends AbstractList<Integer> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        int[] elements;
+        int size;
+
+        IntList(int[] elements) {
+            this.elements = elements;
+            this.size = elements.length;
+        }
+
+        @Override
+        public Integer get(int index) {
+            rangeCheck(index, size);
+            return elements[index];
+        }
+
+        @Override
+        public Integer set(int index, Integer element) {
+            rangeCheck(index, size);
+            int old = elements[index];
+            elements[index] = element;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Integer element) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            int value = element;
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, grow(elements.length, size + 1));
+            }
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = value;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Integer remove(int index) {
+            rangeCheck(index, size);
+            int old = elements[index];
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            size--;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    static final class LongList extends AbstractList<Long> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        long[] elements;
+        int size;
+
+        LongList(long[] elements) {
+            this.elements = elements;
+            this.size = elements.length;
+        }
+
+        @Override
+        public Long get(int index) {
+            rangeCheck(index, size);
+            return elements[index];
+        }
+
+        @Override
+        public Long set(int index, Long element) {
+            rangeCheck(index, size);
+            long old = elements[index];
+            elements[index] = element;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Long element) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            long value = element;
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, grow(elements.length, size + 1));
+            }
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = value;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Long remove(int index) {
+            rangeCheck(index, size);
+            long old = elements[index];
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            size--;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    static final class DoubleList extends AbstractList<Double> implements RandomAccess, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        double[] elements;
+        int size;
+
+        DoubleList(double[] elements) {
+            this.elements = elements;
+            this.size = elements.length;
+        }
+
+        @Override
+        public Double get(int index) {
+            rangeCheck(index, size);
+            return elements[index];
+        }
+
+        @Override
+        public Double set(int index, Double element) {
+            rangeCheck(index, size);
+            double old = elements[index];
+            elements[index] = element;
+            return old;
+        }
+
+        @Override
+        public void add(int index, Double element) {
+            if (index < 0 || index > size) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+            }
+            double value = element;
+            if (size == elements.length) {
+                elements = Arrays.copyOf(elements, grow(elements.length, size + 1));
+            }
+            System.arraycopy(elements, index, elements, index + 1, size - index);
+            elements[index] = value;
+            size++;
+            modCount++;
+        }
+
+        @Override
+        public Double remove(int index) {
+            rangeCheck(index, size);
+            double old = elements[index];
+            System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+            size--;
+            modCount++;
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    private static void rangeCheck(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+/**
+ * Protobuf 序列化用到的常量，主要是 URL 上的配置参数。
+ *
+ * @author yinlei
+ * @since 2026/10/17 10:05
+ */
+public final class ProtobufConstants {
+
+    /**
+     * 是否使用流式反序列化。开启后不再一次性读取整个输入流，而是按帧从流中读取，峰值内存只和最大的单帧相关。
+     */
+    public static final String DECODE_STREAM_KEY = "protobuf.decode.stream";
+
+    public static final boolean DEFAULT_DECODE_STREAM = false;
+
+    /**
+     * 流式反序列化时读取窗口的大小（字节）。超过窗口大小的对象和集合直接从流中解码，不再放入窗口。
+     */
+    public static final String DECODE_WINDOW_KEY = "protobuf.decode.window";
+
+    public static final int DEFAULT_DECODE_WINDOW = 8192;
+
+    /**
+     * 是否使用紧凑格式写入。长度和整数使用 varint，类型和较短的长度合并到一个字节中。读取时自动识别，不需要配置。
+     */
+    public static final String COMPACT_KEY = "protobuf.compact";
+
+    public static final boolean DEFAULT_COMPACT = false;
+
+    /**
+     * 压缩算法的名字，见 {@link FrameCompressors}。不配置时不压缩。只有超过阈值的帧才压缩，每一帧单独标记，读取时自动识别。
+     */
+    public static final String COMPRESSOR_KEY = "protobuf.compressor";
+
+    /**
+     * 压缩阈值（字节），序列化后不小于这个长度的帧才尝试压缩。压缩后没有变小的帧按原样发送。
+     */
+    public static final String COMPRESS_THRESHOLD_KEY = "protobuf.compress.threshold";
+
+    public static final int DEFAULT_COMPRESS_THRESHOLD = 4096;
+
+    /**
+     * Integer、Long、Double 的 List 按基本类型数组写入（见 {@link #INT_LIST}），读取时不装箱。所有的消费者都升级之后才能打开。
+     * 基本类型数组（int[]、long[] 等）以前不能写入，总是使用新的帧，不受这个参数影响。
+     */
+    public static final String PACKED_KEY = "protobuf.packed";
+
+    public static final boolean DEFAULT_PACKED = false;
+
+    /**
+     * 异常的写入方式：simple 只写类名和message（和以前一样），cause 加上cause链，stack 再加上栈。
+     * 后两种使用新的异常帧，所有的消费者都升级之后才能打开。读取时自动识别，新的异常帧会还原成原来的异常类型；
+     * simple 和以前一样读成 RuntimeException(类名;message=message)。
+     */
+    public static final String EXCEPTION_KEY = "protobuf.exception";
+
+    public static final String EXCEPTION_SIMPLE = "simple";
+
+    public static final String EXCEPTION_CAUSE = "cause";
+
+    public static final String EXCEPTION_STACK = "stack";
+
+    /**
+     * 对象和集合中重复的字符串和 byte[] 只写一次，以后写一个引用，见 {@link StringDictionary}。所有的消费者都升级之后才能打开。
+     * 只在一帧之内去重，不会跨消息、跨连接记住字符串，异常和 attachments 也不经过字典。
+     */
+    public static final String DICTIONARY_KEY = "protobuf.dictionary";
+
+    public static final boolean DEFAULT_DICTIONARY = false;
+
+    /**
+     * 读取时较短的字符串经过一个有界的缓存，重复的字符串共用一个实例，见 {@link Utf8}。只影响读取的一方。
+     */
+    public static final String INTERN_KEY = "protobuf.intern";
+
+    public static final boolean DEFAULT_INTERN = false;
+
+    /**
+     * 读取 List 结果时延迟解码元素，返回 {@link LazyMessageList}。只影响读取的一方，只对不小于阈值的帧生效。
+     */
+    public static final String LAZY_KEY = "protobuf.lazy";
+
+    public static final boolean DEFAULT_LAZY = false;
+
+    /**
+     * 延迟解码的阈值（字节），不小于这个长度的 List 帧才延迟解码。
+     */
+    public static final String LAZY_THRESHOLD_KEY = "protobuf.lazy.threshold";
+
+    public static final int DEFAULT_LAZY_THRESHOLD = 4096;
+
+    /**
+     * 较大的 List 和 Set 分块写入，每写完一块就交给底层的输出流，ByteBuffer 只需要放下一块。
+     * 只有一块时还是原来的格式。使用新的分块帧，所有的消费者都升级之后才能打开。
+     */
+    public static final String CHUNKED_KEY = "protobuf.chunked";
+
+    public static final boolean DEFAULT_CHUNKED = false;
+
+    /**
+     * 分块写入时每一块的大小（字节），一块写到超过这个大小为止。
+     */
+    public static final String CHUNK_SIZE_KEY = "protobuf.chunk.size";
+
+    public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * 服务暴露和引用之前预热接口用到的 Schema，见 {@link SchemaWarmUp}。
+     */
+    public static final String WARMUP_KEY = "protobuf.warmup";
+
+    public static final boolean DEFAULT_WARMUP = false;
+
+    /**
+     * 输出流是 Dubbo 的 ChannelBufferOutputStream 并且底层是堆内存时，直接编码到 ChannelBuffer 中，
+     * 不再先写到自己的 ByteBuffer 再拷贝过去。写出的数据完全相同，只影响本端。
+     */
+    public static final String DIRECT_KEY = "protobuf.direct";
+
+    public static final boolean DEFAULT_DIRECT = true;
+
+    /**
+     * 元素个数达到阈值的 List、Set 和 Map 并行编码，见 {@link ParallelEncoder}。写出的数据和串行编码完全相同。
+     * 打开字符串字典或者分块写入时不使用。
+     */
+    public static final String PARALLEL_KEY = "protobuf.parallel";
+
+    public static final boolean DEFAULT_PARALLEL = false;
+
+    /**
+     * 并行编码的元素个数阈值。
+     */
+    public static final String PARALLEL_THRESHOLD_KEY = "protobuf.parallel.threshold";
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 4096;
+
+    /**
+     * 并行编码的线程数，进程内共用一个线程池，以第一次使用时的配置为准。
+     */
+    public static final String PARALLEL_THREADS_KEY = "protobuf.parallel.threads";
+
+    public static final int DEFAULT_PARALLEL_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * List、Set 和 Map 前面加上元素个数和容器类型（见 {@link #COUNTED}），读取时预先分配容器的大小，
+     * 并且按写入时的容器创建 LinkedHashMap、TreeSet 等。所有的消费者都升级之后才能打开。
+     */
+    public static final String COLLECTION_COUNT_KEY = "protobuf.collection.count";
+
+    public static final boolean DEFAULT_COLLECTION_COUNT = false;
+
+    /**
+     * key 和 value 都是 String 的 Map（Dubbo 的 attachments）按 {@link #STRING_MAP} 写入，常见的 key 和值只占1个字节，
+     * 和前面 writeUTF 写过的字符串相同的值（path、interface、version）引用前面的字符串。所有的消费者都升级之后才能打开。
+     */
+    public static final String STRING_MAP_KEY = "protobuf.string.map";
+
+    public static final boolean DEFAULT_STRING_MAP = false;
+
+    /**
+     * protobuf-java 生成的消息（MessageLite）用它自己的编码写入（见 {@link #PROTOBUF}），不再经过 RuntimeSchema。
+     * 所有的消费者都升级之后才能打开。读取时自动识别，不需要配置。
+     */
+    public static final String NATIVE_MESSAGES_KEY = "protobuf.native.messages";
+
+    public static final boolean DEFAULT_NATIVE_MESSAGES = false;
+
+    /**
+     * 写入的格式版本，读取的一方两种格式都能读，不需要配置。
+     * <ul>
+     * <li>不配置（或者0）：按各个参数写入，没有版本头。新的帧都要通过各自的参数打开，默认都是关闭的，
+     * 不配置任何参数时写出的就是最初的格式（类型0-16），还没有升级的节点能读取。
+     * 只有 int[] 等基本类型数组使用新的类型，以前的版本写不了这些数组。</li>
+     * <li>{@link #VERSION_1}：只使用最初的格式（固定5个字节的帧头，类型0-16），忽略紧凑格式、压缩、分块、字典等参数，
+     * 还没有升级的节点也能读取。</li>
+     * <li>{@link #VERSION_2}：数据前面加上版本头（见 {@link #PREAMBLE}），按各个参数使用新的帧。</li>
+     * </ul>
+     * 滚动升级时先把所有节点升级到能读新格式的版本，再通过配置（比如 Dubbo 的动态配置）把这个参数改成2，
+     * 提供者配置的值会合并到消费者的 URL 中，消费者自己配置的优先。
+     */
+    public static final String VERSION_KEY = "protobuf.version";
+
+    public static final int VERSION_1 = 1;
+
+    public static final int VERSION_2 = 2;
+
+    /** 这个版本的代码能读取的最高版本 */
+    public static final int CURRENT_VERSION = VERSION_2;
+
+    /*
+     * 紧凑格式的类型字节：最高位为1，中间3位是类型，低4位是内联的长度（或者 zigzag 后的整数值）。
+     * 低4位为15时，真正的长度（或数值）用 varint 跟在后面。类型0-3和原格式的对象、List、Set、Map相同。
+     */
+    static final int COMPACT_FLAG = 0x80;
+    static final int COMPACT_VARINT = 15;
+    static final int COMPACT_STRING = 4;
+    static final int COMPACT_BYTES = 5;
+    static final int COMPACT_INT = 6;
+    static final int COMPACT_LONG = 7;
+
+    /*
+     * 基本类型数组和装箱数字的List：类型之后是4个字节的元素个数，然后是定长（大端）的元素，整块读写，不装箱。
+     */
+    static final byte INT_ARRAY = 17;
+    static final byte LONG_ARRAY = 18;
+    static final byte DOUBLE_ARRAY = 19;
+    static final byte FLOAT_ARRAY = 20;
+    static final byte SHORT_ARRAY = 21;
+    static final byte INT_LIST = 22;
+    static final byte LONG_LIST = 23;
+    static final byte DOUBLE_LIST = 24;
+
+    /**
+     * 压缩的帧：类型之后是1个字节的压缩算法编号，4个字节的原始长度，4个字节的压缩后长度，然后是压缩的数据。
+     * 解压之后是一个完整的帧（包括类型）。
+     */
+    static final byte COMPRESSED = 25;
+
+    /** 压缩帧的头：类型 + 算法编号 + 原始长度 + 压缩后长度 */
+    static final int COMPRESSED_HEADER_SIZE = 10;
+
+    /**
+     * 带cause链和栈的异常：类型之后是4个字节的长度，然后是字符串表和异常链，格式见 {@link ExceptionCodec}。
+     */
+    static final byte EXCEPTION = 26;
+
+    /**
+     * 只有1个字节，表示后面紧跟的对象或者集合帧中有字符串引用，见 {@link StringDictionary}。
+     */
+    static final byte DICTIONARY = 27;
+
+    /**
+     * 分块的集合：类型之后是1个字节的集合类型（1是List，2是Set），然后是若干块，每一块是4个字节的长度和
+     * 一部分元素（格式和集合帧的数据一样），最后是长度为0的结束标记。
+     */
+    static final byte CHUNKED = 28;
+
+    /**
+     * 集合帧的头（第2版）：类型之后是1个字节的集合类型（1是List，2是Set，3是Map），1个字节的容器类型，
+     * varint 的元素个数，然后紧跟集合帧本身（原格式、紧凑格式、分块的或者有字符串引用的都可以）。
+     */
+    static final byte COUNTED = 29;
+
+    /**
+     * 版本头：只出现在数据的最前面，后面是1个字节的版本号。原格式和紧凑格式的类型字节都不会是这个值，
+     * 没有版本头的数据就是没有配置版本的写入方。
+     */
+    static final byte PREAMBLE = 0x7F;
+
+    /**
+     * protobuf-java 生成的消息（MessageLite）：类型之后是4个字节的长度，然后是消息本身的 protobuf 编码。
+     * 读取时按声明的类型取得 Parser 解码，见 {@link ProtobufSchemas#parser(Class)}。
+     */
+    static final byte PROTOBUF = 30;
+
+    /**
+     * key 和 value 都是 String 的 Map：类型之后是4个字节的长度，varint 的元素个数，然后依次是每个元素的 key 和 value，
+     * 字符串的编码见 {@link StringMapCodec}。前面可以有 {@link #COUNTED} 头。
+     */
+    static final byte STRING_MAP = 31;
+
+    /** 容器类型：ArrayList、HashSet、HashMap */
+    static final byte CONTAINER_DEFAULT = 0;
+    /** 容器类型：LinkedList、LinkedHashSet、LinkedHashMap，保持顺序 */
+    static final byte CONTAINER_LINKED = 1;
+    /** 容器类型：按自然顺序排序的 TreeSet、TreeMap */
+    static final byte CONTAINER_SORTED = 2;
+
+    private ProtobufConstants() {
+    }
+}
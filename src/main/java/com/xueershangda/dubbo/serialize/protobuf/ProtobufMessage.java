@@ -0,0 +1,28 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 标记需要在编译时生成 Schema 的 DTO。编译时 {@link com.xueershangda.dubbo.serialize.protobuf.processor.SchemaProcessor}
+ * 在同一个包中生成 类名 + {@link #SCHEMA_SUFFIX} 的 Schema 实现，直接调用 getter/setter（或者字段），
+ * 运行时优先使用它，不再通过反射解析类，也不再反射访问字段。
+ * <p>
+ * 字段的编号和 RuntimeSchema 一样（按声明的顺序，父类的在前，支持 {@link io.protostuff.Tag}），
+ * 两种 Schema 写出的数据完全相同，服务双方可以一方使用生成的 Schema，另一方使用 RuntimeSchema。
+ * 有不支持的字段类型时不生成，编译时给出警告，运行时还是使用 RuntimeSchema。
+ *
+ * @author yinlei
+ * @since 2026/10/17 20:10
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ProtobufMessage {
+
+    /** 生成的 Schema 的类名后缀，嵌套类的外部类名之间用$连接 */
+    String SCHEMA_SUFFIX = "$$ProtobufSchema";
+}
@@ -2,19 +2,22 @@ package com.xueershangda.dubbo.serialize.protobuf;
 
 import com.alibaba.dubbo.common.URL;
 import com.alibaba.dubbo.common.serialize.ObjectInput;
-import com.vteba.utils.reflection.ReflectUtils;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.protostuff.LinkedBuffer;
 import io.protostuff.MessageCollectionSchema;
 import io.protostuff.ProtostuffIOUtil;
 import io.protostuff.Schema;
 import io.protostuff.StringMapSchema;
-import io.protostuff.runtime.RuntimeSchema;
 import org.apache.commons.io.IOUtils;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.springframework.objenesis.ObjenesisHelper;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -23,105 +26,201 @@ import java.util.*;
 
 /**
  * Protobuf 数据反序列化。第一个字节是类型，第 2-5是数据长度。基本类型使用ByteBuffer来处理。对象使用 Protobuf。
+ * <p>
+ * 默认一次性读取整个输入流。URL 上配置 {@link ProtobufConstants#DECODE_STREAM_KEY} 后使用流式读取，
+ * ByteBuffer 只作为一个读取窗口，按需从流中补充数据；超过窗口大小的对象和集合直接交给 protostuff 从流中解码。
+ * <p>
+ * 类型字节最高位为1的是紧凑格式（见 {@link ProtobufConstants#COMPACT_FLAG}），和原格式可以混在一起读取。
+ * 压缩的帧（见 {@link ProtobufConstants#COMPRESSED}）解压后按一个独立的帧读取。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#LAZY_KEY} 后，较大的 List 结果返回 {@link LazyMessageList}，元素在使用时才解码。
+ * <p>
+ * 数据前面有版本头（见 {@link ProtobufConstants#PREAMBLE}）时读取并校验版本号，没有版本头的按以前的格式读取，
+ * 两种格式的帧是一样的，读取时不需要配置版本。
+ * <p>
+ * 集合帧前面有元素个数（见 {@link ProtobufConstants#COUNTED}）时，按元素个数预先分配容器，按容器类型创建容器。
+ * <p>
+ * readUTF 读取的字符串记录下来，{@link ProtobufConstants#STRING_MAP} 帧（attachments）中可能引用它们。
+ * <p>
+ * 不再逐个调用打印 debug 日志，每一帧的类型、长度和耗时见 {@link SerializationMetrics} 和 {@link FlightRecorder}。
  *
  * @author yinlei
  * @since 2018/9/11 12:28
  */
 public class ProtobufObjectInput implements ObjectInput {
 
-    private static final Logger LOGGER = LogManager.getLogger(ProtobufObjectInput.class);
-
     private byte[] bytes;
     private ByteBuffer byteBuffer;
+    /** 流式读取时的数据来源，一次性读取时为null */
+    private InputStream input;
+    /** 流式读取时窗口的大小，超过的对象和集合不放入窗口 */
+    private int window;
+    /** 已经移出窗口的字节数，加上 position 就是读取到的位置，统计用 */
+    private long discarded;
+    /** 正在读取的帧中有字符串引用，见 {@link ProtobufConstants#DICTIONARY} */
+    private boolean dictionary;
+    /** 较短的字符串是否经过缓存，见 {@link ProtobufConstants#INTERN_KEY} */
+    private boolean intern;
+    /** 不小于这个长度的 List 帧延迟解码，0表示不延迟 */
+    private int lazyThreshold;
+    /** 正在读取的集合帧的元素个数，0表示不知道，见 {@link ProtobufConstants#COUNTED} */
+    private int expectedSize;
+    /** 正在读取的集合帧的容器类型 */
+    private byte containerKind;
+    /** readUTF 读取的字符串，见 {@link StringMapCodec} */
+    private String[] utfStrings;
+    private int utfCount;
+
+    /** 预先分配的容器最多能放下多少个元素，元素个数是对方写的，不能完全相信 */
+    private static final int MAX_PRESIZE = 1 << 20;
 
     public ProtobufObjectInput(URL url, InputStream inputStream) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Create ProtobufObjectInput, URL=[{}].", url.toFullString());
+        if (url != null) {
+            intern = url.getParameter(ProtobufConstants.INTERN_KEY, ProtobufConstants.DEFAULT_INTERN);
+            if (url.getParameter(ProtobufConstants.LAZY_KEY, ProtobufConstants.DEFAULT_LAZY)) {
+                lazyThreshold = Math.max(1, url.getParameter(ProtobufConstants.LAZY_THRESHOLD_KEY,
+                        ProtobufConstants.DEFAULT_LAZY_THRESHOLD));
+            }
         }
-        bytes = IOUtils.toByteArray(inputStream);
-        byteBuffer = ByteBuffer.wrap(bytes);
+        if (url != null && url.getParameter(ProtobufConstants.DECODE_STREAM_KEY, ProtobufConstants.DEFAULT_DECODE_STREAM)) {
+            window = url.getParameter(ProtobufConstants.DECODE_WINDOW_KEY, ProtobufConstants.DEFAULT_DECODE_WINDOW);
+            input = inputStream;
+            byteBuffer = ByteBuffer.allocate(window);
+            byteBuffer.flip(); // 空窗口
+        } else {
+            bytes = IOUtils.toByteArray(inputStream);
+            byteBuffer = ByteBuffer.wrap(bytes);
+        }
+        readPreamble();
     }
 
-    public boolean readBool() throws IOException {
+    /**
+     * 读取数据最前面的版本头。没有版本头时什么都不做；版本号比这个版本的代码高时直接失败，不按错误的格式解码。
+     */
+    private void readPreamble() throws IOException {
+        if (!ensure(2) || byteBuffer.get(byteBuffer.position()) != ProtobufConstants.PREAMBLE) {
+            return;
+        }
         byteBuffer.get();
-        boolean b = byteBuffer.get() != 0;
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readBool, value=[{}].", b);
+        int v = byteBuffer.get() & 0xFF;
+        if (v > ProtobufConstants.CURRENT_VERSION) {
+            throw new IOException("Unsupported protobuf wire version " + v + ", this reader supports up to "
+                    + ProtobufConstants.CURRENT_VERSION + ".");
+        }
+    }
+
+    /**
+     * 读取解压后的一帧
+     */
+    private ProtobufObjectInput(byte[] bytes, boolean intern, int lazyThreshold) {
+        this.bytes = bytes;
+        this.byteBuffer = ByteBuffer.wrap(bytes);
+        this.intern = intern;
+        this.lazyThreshold = lazyThreshold;
+    }
+
+    /**
+     * 确保窗口中至少有size个字节可读，不够就从流中补充，窗口放不下就扩容。一次性读取时什么都不做。
+     *
+     * @param size 接下来要读取的字节数
+     * @return 是否有足够的数据，数据不够时后续的读取会抛出 BufferUnderflowException
+     */
+    private boolean ensure(int size) throws IOException {
+        if (byteBuffer.remaining() >= size) {
+            return true;
         }
-        return b;
+        if (input == null) {
+            return false;
+        }
+        discarded += byteBuffer.position();
+        if (byteBuffer.capacity() < size) {
+            SerializationMetrics.getInstance().increment(SerializationMetrics.BUFFER_GROWTH);
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(size, byteBuffer.capacity() * 2));
+            buffer.put(byteBuffer);
+            byteBuffer = buffer;
+        } else {
+            byteBuffer.compact();
+        }
+        byte[] array = byteBuffer.array();
+        while (byteBuffer.position() < size) {
+            int n = input.read(array, byteBuffer.position(), byteBuffer.remaining());
+            if (n < 0) {
+                break;
+            }
+            byteBuffer.position(byteBuffer.position() + n);
+        }
+        byteBuffer.flip();
+        return byteBuffer.remaining() >= size;
+    }
+
+    public boolean readBool() throws IOException {
+        ensure(2);
+        byteBuffer.get();
+        return byteBuffer.get() != 0;
     }
 
     public byte readByte() throws IOException {
+        ensure(2);
         byteBuffer.get();
-        byte b = byteBuffer.get();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readByte value=[{}].", b);
-        }
-        return b;
+        return byteBuffer.get();
     }
 
     public short readShort() throws IOException {
+        ensure(3);
         byteBuffer.get();
-        short s = byteBuffer.getShort();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readShort value=[{}].", s);
-        }
-        return s;
+        return byteBuffer.getShort();
     }
 
     public int readInt() throws IOException {
-        byteBuffer.get();
-        int i = byteBuffer.getInt();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readInt, value=[{}].", i);
-        }
-        return i;
+        ensure(5);
+        byte type = byteBuffer.get();
+        return type < 0 ? (int) readCompactNumber(type) : byteBuffer.getInt();
     }
 
     public long readLong() throws IOException {
-        byteBuffer.get();
-        long l = byteBuffer.getLong();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readLong, value=[{}].", l);
-        }
-        return l;
+        ensure(9);
+        byte type = byteBuffer.get();
+        return type < 0 ? readCompactNumber(type) : byteBuffer.getLong();
     }
 
     public float readFloat() throws IOException {
+        ensure(5);
         byteBuffer.get();
-        float f = byteBuffer.getFloat();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readFloat, value=[{}].", f);
-        }
-        return f;
+        return byteBuffer.getFloat();
     }
 
     public double readDouble() throws IOException {
+        ensure(9);
         byteBuffer.get();
-        double d = byteBuffer.getDouble();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readDouble, value=[{}].", d);
-        }
-        return d;
+        return byteBuffer.getDouble();
     }
 
     public String readUTF() throws IOException {
+        ensure(1);
         byte type = byteBuffer.get();
-        if (type != 12) { // 不是string类型
+        String s;
+        if (type < 0 && compactType(type) == ProtobufConstants.COMPACT_STRING) {
+            s = readString(readCompactValue(type));
+        } else if (type != 12) { // 不是string类型
             return null;
+        } else {
+            s = readString();
         }
-        String s = readString();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readUTF, value=[{}].", s);
+        if (s != null && utfCount < StringMapCodec.MAX_REFS) { // 和写入的一方一样，不记录 null 和空字符串
+            if (utfStrings == null) {
+                utfStrings = new String[StringMapCodec.MAX_REFS];
+            }
+            utfStrings[utfCount++] = s;
         }
         return s;
     }
 
     public byte[] readBytes() throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readBytes.");
-        }
+        ensure(1);
         byte type = byteBuffer.get();
+        if (type < 0 && compactType(type) == ProtobufConstants.COMPACT_BYTES) {
+            return readByteArray(readCompactValue(type));
+        }
         if (type != 14) { // 不是byte[]
             return new byte[0];
         }
@@ -129,25 +228,35 @@ public class ProtobufObjectInput implements ObjectInput {
     }
 
     private String readString() throws IOException {
-        int length = byteBuffer.getInt();
-        if (length != 0) {
-            byte[] data = new byte[length];
-            byteBuffer.get(data);
-            String s = new String(data, "UTF-8");
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("readString, s=[{}].", s);
-            }
-            return s;
+        ensure(4);
+        return readString(byteBuffer.getInt());
+    }
+
+    private String readString(int length) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 || !ensure(length)) {
+            throw new IOException("String truncated, length=" + length + ".");
         }
-        return null;
+        // 直接在底层数组上解码，不再拷贝
+        int position = byteBuffer.position();
+        String s = Utf8.decode(byteBuffer.array(), byteBuffer.arrayOffset() + position, length, intern);
+        byteBuffer.position(position + length);
+        return s;
     }
 
     private byte[] readByteArray() throws IOException {
-        int length = byteBuffer.getInt();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readByteArray, dataLength=[{}].", length);
-        }
+        ensure(4);
+        return readByteArray(byteBuffer.getInt());
+    }
+
+    private byte[] readByteArray(int length) throws IOException {
         if (length != 0) {
+            // 长度是对方写的，先确认数据足够再分配
+            if (length < 0 || !ensure(length)) {
+                throw new IOException("Bytes truncated, length=" + length + ".");
+            }
             byte[] data = new byte[length];
             byteBuffer.get(data);
             return data;
@@ -158,109 +267,283 @@ public class ProtobufObjectInput implements ObjectInput {
     @Override
     @SuppressWarnings("unchecked")
     public Object readObject() throws IOException, ClassNotFoundException {
-        if (bytes.length == 0) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("readObject, byteArray is empty, return null.");
-            }
+        if (bytes != null ? bytes.length == 0 : !ensure(1)) {
             return null;
         }
+        // 对象、集合和外层的帧（压缩、字典、分块、元素个数）和 readObject(Class, Type) 一样处理，没有声明的类型
+        if (ensure(1) && isFrame(byteBuffer.get(byteBuffer.position()))) {
+            return readFrame(Object.class, Object.class, byteBuffer.get(byteBuffer.position()));
+        }
 
         byte type = byteBuffer.get();
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("readObject, dataType=[{}].", type);
+        if (type < 0) {
+            return readCompact(type);
         }
         // 基本类型和复合类型在一起，导致获取数据长度有问题
         switch (type) {
             case 4:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, int.");
-                }
+                ensure(4);
                 return byteBuffer.getInt();
             case 5:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, long.");
-                }
+                ensure(8);
                 return byteBuffer.getLong();
             case 6:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, double.");
-                }
+                ensure(8);
                 return byteBuffer.getDouble();
             case 7:
                 // 已经读取过标志位了，不再去mark reset，接着读
                 String s = readString();
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, BigInteger.");
-                }
                 return new BigInteger(s == null ? "0" : s);
             case 8:
                 s = readString();
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, BigDecimal.");
-                }
                 return new BigDecimal(s == null ? "0" : s);
             case 9:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, byte.");
-                }
+                ensure(1);
                 return byteBuffer.get();
             case 10:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, float.");
-                }
+                ensure(4);
                 return byteBuffer.getFloat();
             case 11:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, short.");
-                }
+                ensure(2);
                 return byteBuffer.getShort();
             case 12:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, String.");
-                }
                 return readString();
             case 13:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, boolean.");
-                }
+                ensure(1);
                 return byteBuffer.get() != 0;
             case 14:
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, byte array.");
-                }
                 return readByteArray();
+            case ProtobufConstants.INT_ARRAY:
+                return readIntArray();
+            case ProtobufConstants.LONG_ARRAY:
+                return readLongArray();
+            case ProtobufConstants.DOUBLE_ARRAY:
+                return readDoubleArray();
+            case ProtobufConstants.FLOAT_ARRAY:
+                int length = readArrayLength(4);
+                float[] floats = new float[length];
+                byteBuffer.asFloatBuffer().get(floats);
+                byteBuffer.position(byteBuffer.position() + length * 4);
+                return floats;
+            case ProtobufConstants.SHORT_ARRAY:
+                length = readArrayLength(2);
+                short[] shorts = new short[length];
+                byteBuffer.asShortBuffer().get(shorts);
+                byteBuffer.position(byteBuffer.position() + length * 2);
+                return shorts;
+            case ProtobufConstants.INT_LIST:
+                return new PrimitiveLists.IntList(readIntArray());
+            case ProtobufConstants.LONG_LIST:
+                return new PrimitiveLists.LongList(readLongArray());
+            case ProtobufConstants.DOUBLE_LIST:
+                return new PrimitiveLists.DoubleList(readDoubleArray());
             case 16: // 异常
+                ensure(8);
                 int totalLength = byteBuffer.getInt();
                 int nameLength = byteBuffer.getInt();
-                byte[] classNameBytes = new byte[nameLength];
-                byteBuffer.get(classNameBytes);
-                String message = "";
-                if (totalLength > nameLength) {
-                    int messageLength = totalLength - nameLength;
-                    byte[] messageBytes = new byte[messageLength];
-                    byteBuffer.get(messageBytes);
-                    message = new String(messageBytes, "UTF-8");
+                if (nameLength < 0 || totalLength < nameLength || !ensure(totalLength)) {
+                    throw new IOException("Exception truncated, length=" + totalLength + ".");
                 }
-                String className = new String(classNameBytes, "UTF-8");
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject, Throwable[{}], message=[{}].", className, message);
+                int position = byteBuffer.arrayOffset() + byteBuffer.position();
+                String className = Utf8.decode(byteBuffer.array(), position, nameLength, intern);
+                String message = ""; // 和以前一样，没有message时是空字符串
+                if (totalLength > nameLength) {
+                    message = Utf8.decode(byteBuffer.array(), position + nameLength, totalLength - nameLength);
                 }
+                byteBuffer.position(byteBuffer.position() + totalLength);
+                // simple 模式和以前的结果一样，不按对方给的类名创建异常；还原类型需要写入方打开 protobuf.exception
                 return new RuntimeException(className + ";message=" + message);
+            case ProtobufConstants.EXCEPTION:
+                ensure(4);
+                int frameLength = byteBuffer.getInt();
+                if (frameLength < 0 || !ensure(frameLength)) {
+                    throw new IOException("Exception frame truncated, length=" + frameLength + ".");
+                }
+                return ExceptionCodec.decode(byteBuffer, frameLength);
+            case ProtobufConstants.STRING_MAP:
+                return readStringMap();
+        }
+        throw unknownType(type);
+    }
+
+    /**
+     * 由 {@link #readFrame(Class, Type, byte)} 处理的类型
+     */
+    private static boolean isFrame(byte type) {
+        if (type < 0) {
+            return compactType(type) <= 3;
+        }
+        return type <= 3 || type == ProtobufConstants.COMPRESSED || type == ProtobufConstants.DICTIONARY
+                || type == ProtobufConstants.CHUNKED || type == ProtobufConstants.COUNTED
+                || type == ProtobufConstants.PROTOBUF;
+    }
+
+    /**
+     * 不认识的类型不知道帧的长度，没法跳过，后面的数据也读不了，直接失败
+     */
+    private static IOException unknownType(byte type) {
+        SerializationMetrics.getInstance().increment(SerializationMetrics.UNKNOWN_TYPE);
+        return new IOException("Unknown data type=" + type + ", the writer uses a newer format.");
+    }
+
+    /**
+     * 没有声明的类型（readObject()）时只能读取 Map（value 当作 String），对象和集合不知道该解码成什么类型
+     */
+    private static void requireType(Class<?> cls, int dataType) throws IOException {
+        if (cls == Object.class) {
+            throw new IOException("Data type=" + dataType + " can not be read without the declared type,"
+                    + " use readObject(Class, Type).");
+        }
+    }
+
+    /**
+     * 解压一帧数据，类型字节已经读取过了。
+     *
+     * @return 读取解压后数据的 ObjectInput
+     */
+    private ProtobufObjectInput decompress() throws IOException {
+        ensure(ProtobufConstants.COMPRESSED_HEADER_SIZE - 1);
+        byte id = byteBuffer.get();
+        int rawLength = byteBuffer.getInt();
+        int compressedLength = byteBuffer.getInt();
+        FrameCompressor compressor = FrameCompressors.get(id);
+        if (compressor == null) {
+            throw new IOException("Unknown compressor id=" + id + ".");
+        }
+        // 压缩率不可能超过255倍，防止错误的数据分配过大的数组
+        if (compressedLength < 0 || rawLength < 0 || rawLength > (long) compressedLength * 255 + 16) {
+            throw new IOException("Illegal compressed frame, rawLength=" + rawLength
+                    + ", compressedLength=" + compressedLength + ".");
+        }
+        if (!ensure(compressedLength)) {
+            throw new IOException("Compressed frame truncated, compressedLength=" + compressedLength + ".");
+        }
+        byte[] raw = new byte[rawLength];
+        int position = byteBuffer.position();
+        compressor.decompress(byteBuffer.array(), byteBuffer.arrayOffset() + position, compressedLength,
+                raw, 0, rawLength);
+        byteBuffer.position(position + compressedLength);
+        ProtobufObjectInput input = new ProtobufObjectInput(raw, intern, lazyThreshold);
+        input.utfStrings = utfStrings; // 压缩的 STRING_MAP 帧也可能引用前面的字符串
+        input.utfCount = utfCount;
+        return input;
+    }
+
+    /**
+     * 读取 key 和 value 都是 String 的 Map，格式见 {@link ProtobufConstants#STRING_MAP}，类型字节已经读取过了
+     */
+    private Map<String, Object> readStringMap() throws IOException {
+        ensure(4);
+        int length = byteBuffer.getInt();
+        if (length < 0 || !ensure(length)) {
+            throw new IOException("String map truncated, length=" + length + ".");
+        }
+        int end = byteBuffer.position() + length;
+        int count = Varints.getVarInt(byteBuffer);
+        if (count < 0 || count > length / 2) {
+            throw new IOException("Illegal string map frame, size=" + count + ".");
+        }
+        Map<String, Object> map = newMap(count, count);
+        for (int i = 0; i < count; i++) {
+            String key = StringMapCodec.read(byteBuffer, end, utfStrings, utfCount, intern);
+            map.put(key, StringMapCodec.read(byteBuffer, end, utfStrings, utfCount, intern));
+        }
+        if (byteBuffer.position() != end) {
+            throw new IOException("Illegal string map frame, length=" + length + ".");
+        }
+        return map;
+    }
+
+    /**
+     * 读取数组的元素个数，并确保所有元素都已经在窗口中
+     */
+    private int readArrayLength(int width) throws IOException {
+        ensure(4);
+        int length = byteBuffer.getInt();
+        long size = (long) length * width;
+        if (length < 0 || size > Integer.MAX_VALUE) {
+            throw new IOException("Illegal array length=" + length + ".");
         }
-        if (LOGGER.isWarnEnabled()) {
-            LOGGER.warn("readObject, unknown data type=[{}], skip and return null.", type);
+        ensure((int) size);
+        return length;
+    }
+
+    private int[] readIntArray() throws IOException {
+        int length = readArrayLength(4);
+        int[] array = new int[length];
+        byteBuffer.asIntBuffer().get(array);
+        byteBuffer.position(byteBuffer.position() + length * 4);
+        return array;
+    }
+
+    private long[] readLongArray() throws IOException {
+        int length = readArrayLength(8);
+        long[] array = new long[length];
+        byteBuffer.asLongBuffer().get(array);
+        byteBuffer.position(byteBuffer.position() + length * 8);
+        return array;
+    }
+
+    private double[] readDoubleArray() throws IOException {
+        int length = readArrayLength(8);
+        double[] array = new double[length];
+        byteBuffer.asDoubleBuffer().get(array);
+        byteBuffer.position(byteBuffer.position() + length * 8);
+        return array;
+    }
+
+    /**
+     * 紧凑格式的基本类型，类型字节已经读取过了
+     */
+    private Object readCompact(byte type) throws IOException {
+        switch (compactType(type)) {
+            case ProtobufConstants.COMPACT_INT:
+                return (int) readCompactNumber(type);
+            case ProtobufConstants.COMPACT_LONG:
+                return readCompactNumber(type);
+            case ProtobufConstants.COMPACT_STRING:
+                return readString(readCompactValue(type));
+            case ProtobufConstants.COMPACT_BYTES:
+                return readByteArray(readCompactValue(type));
+        }
+        throw unknownType(type);
+    }
+
+    private static int compactType(byte type) {
+        return (type >> 4) & 0x07;
+    }
+
+    /**
+     * 紧凑格式的长度（按无符号处理），小于15时就在类型字节中，否则用varint跟在后面
+     */
+    private int readCompactValue(byte type) throws IOException {
+        int value = type & 0x0F;
+        if (value < ProtobufConstants.COMPACT_VARINT) {
+            return value;
+        }
+        ensure(5);
+        return Varints.getVarInt(byteBuffer);
+    }
+
+    /**
+     * 紧凑格式的 int 或者 long，zigzag 编码
+     */
+    private long readCompactNumber(byte type) throws IOException {
+        int value = type & 0x0F;
+        if (compactType(type) == ProtobufConstants.COMPACT_INT) {
+            return Varints.decodeZigZag32(readCompactValue(type));
+        }
+        if (value < ProtobufConstants.COMPACT_VARINT) {
+            return Varints.decodeZigZag64(value);
         }
-        return null;
+        ensure(10);
+        return Varints.decodeZigZag64(Varints.getVarLong(byteBuffer));
     }
 
     // 主要用于接收方法参数
     @Override
     @SuppressWarnings("unchecked")
     public <T> T readObject(Class<T> cls) throws IOException, ClassNotFoundException {
-        if (LOGGER.isDebugEnabled()) {
-            Type[] types = ReflectUtils.getGenericTypeArray(cls);
-            LOGGER.debug("readObject(Class<{}>), type=[{}].", cls.getName(), types);
-        }
         return readObject(cls, cls);
     }
 
@@ -268,92 +551,320 @@ public class ProtobufObjectInput implements ObjectInput {
     @Override
     @SuppressWarnings("unchecked")
     public <T> T readObject(Class<T> cls, Type type) throws IOException, ClassNotFoundException {
-        if (LOGGER.isDebugEnabled()) {
-            Class<?> clazz = ReflectUtils.getGenericClass(type);
-            LOGGER.debug("readObject(Class<{}>), GenericClass=[{}], type=[{}].",
-                    cls.getName(), clazz, type.getTypeName());
+        // 流式读取时窗口会被压缩，mark失效，所以先看一眼类型，不消费
+        ensure(1);
+        byte tag = byteBuffer.get(byteBuffer.position());
+        SerializationMetrics metrics = SerializationMetrics.getInstance();
+        long begin = metrics.begin();
+        long start = discarded + byteBuffer.position();
+        byte frameType = tag;
+        if ((tag == ProtobufConstants.DICTIONARY || tag == ProtobufConstants.COUNTED) && ensure(2)) { // 按后面真正的帧统计
+            frameType = byteBuffer.get(byteBuffer.position() + 1);
+        }
+        T result = readFrame(cls, type, tag);
+        metrics.recordDecode(frameType, cls, discarded + byteBuffer.position() - start, begin);
+        return result;
+    }
+
+    /**
+     * 读取一帧数据，tag 是已经看过但还没有消费的类型字节
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T readFrame(Class<T> cls, Type type, byte tag) throws IOException, ClassNotFoundException {
+        byte dataType = tag;
+        boolean compactType = dataType < 0;
+        if (compactType) {
+            dataType = (byte) compactType(dataType);
+        }
+        if (dataType == ProtobufConstants.DICTIONARY) {
+            byteBuffer.get();
+            ensure(1);
+            dictionary = true;
+            try {
+                return readFrame(cls, type, byteBuffer.get(byteBuffer.position()));
+            } finally {
+                dictionary = false;
+            }
+        }
+        if (dataType == ProtobufConstants.COUNTED) {
+            ensure(8);
+            byteBuffer.get();
+            byteBuffer.get(); // 集合类型，统计用
+            containerKind = byteBuffer.get();
+            expectedSize = Varints.getVarInt(byteBuffer);
+            ensure(1);
+            try {
+                return readFrame(cls, type, byteBuffer.get(byteBuffer.position()));
+            } finally {
+                expectedSize = 0;
+                containerKind = ProtobufConstants.CONTAINER_DEFAULT;
+            }
+        }
+        if (dataType == ProtobufConstants.COMPRESSED) {
+            byteBuffer.get();
+            // 统计算在压缩帧上，不再单独记录解压后的帧
+            ProtobufObjectInput raw = decompress();
+            return raw.readFrame(cls, type, raw.byteBuffer.get(0));
+        }
+        if (dataType == ProtobufConstants.CHUNKED) {
+            requireType(cls, dataType);
+            byteBuffer.get();
+            return (T) declared(cls, readChunked(type));
+        }
+        if (dataType == ProtobufConstants.PROTOBUF) {
+            requireType(cls, dataType);
+            byteBuffer.get();
+            return (T) readMessage(cls);
+        }
+        if (dataType == ProtobufConstants.INT_LIST || dataType == ProtobufConstants.LONG_LIST
+                || dataType == ProtobufConstants.DOUBLE_LIST) {
+            // 声明的类型能放下基本类型数组的 List 时才直接返回，否则按声明的容器拷贝一份
+            return (T) declared(cls, (List<?>) readObject());
         }
-        byteBuffer.mark(); // 如果没有处理到，reset回来
-        byte dataType = byteBuffer.get();
         // 基本类型和异常
         if (dataType > 3) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("readObject(cls), primitive Type, use readObject instead of.");
-            }
-            byteBuffer.reset();
             return (T) readObject();
         }
 
+        if (dataType != 3) {
+            requireType(cls, dataType);
+        }
         // 集合和对象类型和基本类型分开，代码更整洁
-        int totalLength = byteBuffer.getInt();
-        if (totalLength == 0) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("readObject, Non primitive Type, empty Object, dataType=[{}].", dataType);
+        int dataLength;
+        if (compactType) {
+            // 紧凑格式的长度不包括头，长度为0的对象是一个空对象
+            dataLength = readCompactValue(byteBuffer.get());
+            if (dataLength == 0 && dataType != 0) {
+                return (T) empty(dataType);
             }
-            switch (dataType) {
-                case 0: // 对象
-                    return null;
-                case 1:
-                    return (T) Collections.emptyList();
-                case 2:
-                    return (T) Collections.emptySet();
-                case 3:
-                    return (T) Collections.emptyMap();
+        } else {
+            ensure(5);
+            byteBuffer.get();
+            int totalLength = byteBuffer.getInt();
+            if (totalLength == 0) {
+                return (T) empty(dataType);
             }
+            dataLength = totalLength - 5;
         }
 
-        byte[] dataBytes = new byte[totalLength - 5];
-        byteBuffer.get(dataBytes);
+        if (dataType == 1 && lazyThreshold > 0 && dataLength >= lazyThreshold
+                && cls.isAssignableFrom(LazyMessageList.class)) {
+            return (T) lazyList(dataLength, ProtobufSchemas.collectionSchema(type).schema);
+        }
+        // 有字符串引用的帧需要随机访问，只能整帧放入窗口
+        boolean buffered = dictionary || input == null || dataLength <= window || byteBuffer.remaining() >= dataLength;
+        if (buffered) {
+            ensure(dataLength);
+        }
         switch (dataType) {
             case 0:
                 // 是POJO，不用再获取类型信息了，就是她
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject(cls), className=[{}].", cls);
-                }
-                Schema<T> schema = RuntimeSchema.getSchema(cls);
+                Schema<T> schema = ProtobufSchemas.getSchema(cls);
                 T entity = ObjenesisHelper.newInstance(cls);
-                ProtostuffIOUtil.mergeFrom(dataBytes, entity, schema);
+                mergeFrom(buffered, dataLength, entity, schema);
                 return entity;
             case 1:
-                Class<T> genericClass = ReflectUtils.getGenericClass(type);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject(cls), className=[List<{}>].", genericClass);
-                }
-                schema = RuntimeSchema.getSchema(genericClass);
-                MessageCollectionSchema collectionSchema = new MessageCollectionSchema(schema);
-                List list = new ArrayList();
-                ProtostuffIOUtil.mergeFrom(dataBytes, list, collectionSchema);
-                return (T) list;
+                // 泛型在 ProtobufSchemas 中按 type 解析并缓存
+                MessageCollectionSchema<Object> collectionSchema = ProtobufSchemas.collectionSchema(type);
+                Collection<Object> list = newCollection(1, dataLength / 2);
+                mergeFrom(buffered, dataLength, list, collectionSchema);
+                return (T) declared(cls, list);
             case 2:
-                genericClass = ReflectUtils.getGenericClass(type);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject(cls), className=[Set<{}>].", genericClass);
-                }
-                schema = RuntimeSchema.getSchema(genericClass);
-                collectionSchema = new MessageCollectionSchema(schema);
-                Set set = new HashSet();
-                ProtostuffIOUtil.mergeFrom(dataBytes, set, collectionSchema);
-                return (T) set;
+                collectionSchema = ProtobufSchemas.collectionSchema(type);
+                Collection<Object> set = newCollection(2, dataLength / 2);
+                mergeFrom(buffered, dataLength, set, collectionSchema);
+                return (T) declared(cls, set);
             case 3:
-                if (cls == Map.class) { // 是Map接口，没有泛型信息
-                    genericClass = (Class<T>) String.class;
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("readObject(cls), the cls is Map interface, will use String instead of.");
-                    }
-                } else {
-                    genericClass = ReflectUtils.getGenericClass(type, 1);
-                }
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("readObject(cls), className=[Map<String, {}>].", genericClass);
-                }
-                schema = RuntimeSchema.getSchema(genericClass);
-                StringMapSchema stringSchema = new StringMapSchema(schema);
-                Map map = new HashMap();
-                ProtostuffIOUtil.mergeFrom(dataBytes, map, stringSchema);
+                // 没有泛型信息时（比如 readObject(Map.class)）value当作String处理
+                StringMapSchema<Object> stringSchema = ProtobufSchemas.mapSchema(type);
+                Map<String, Object> map = newMap(dataLength / 2);
+                mergeFrom(buffered, dataLength, map, stringSchema);
                 return (T) map;
-            default:
-                byteBuffer.reset();
         }
         return (T) readObject();
     }
+
+    /**
+     * 读取分块的集合，格式见 {@link ProtobufConstants#CHUNKED}。每一块单独解码，追加到同一个集合中，
+     * 流式读取时窗口只需要放下一块。
+     */
+    private Collection<Object> readChunked(Type type) throws IOException {
+        ensure(1);
+        Collection<Object> collection = newCollection(byteBuffer.get() == 2 ? 2 : 1, MAX_PRESIZE);
+        MessageCollectionSchema<Object> schema = ProtobufSchemas.collectionSchema(type);
+        for (;;) {
+            ensure(4);
+            int length = byteBuffer.getInt();
+            if (length == 0) {
+                return collection;
+            }
+            boolean buffered = dictionary || input == null || length <= window || byteBuffer.remaining() >= length;
+            if (length < 0 || buffered && !ensure(length)) {
+                throw new IOException("Chunk truncated, length=" + length + ".");
+            }
+            mergeFrom(buffered, length, collection, schema);
+        }
+    }
+
+    /**
+     * 读取 protobuf-java 的消息，格式见 {@link ProtobufConstants#PROTOBUF}。消息的类型就是方法签名上声明的类
+     */
+    private MessageLite readMessage(Class<?> cls) throws IOException {
+        ensure(4);
+        int length = byteBuffer.getInt();
+        if (length < 0 || !ensure(length)) {
+            throw new IOException("Protobuf message truncated, length=" + length + ".");
+        }
+        Parser<MessageLite> parser = ProtobufSchemas.parser(cls);
+        int position = byteBuffer.position();
+        MessageLite message = parser.parseFrom(byteBuffer.array(), byteBuffer.arrayOffset() + position, length);
+        byteBuffer.position(position + length);
+        return message;
+    }
+
+    /**
+     * 只建立元素的索引，元素在使用时才解码。一次性读取时直接引用整个报文的数组；
+     * 流式读取时窗口会被复用，这一帧读到单独的数组中，不经过窗口。
+     */
+    private List<Object> lazyList(int dataLength, Schema<Object> schema) throws IOException {
+        if (input == null) {
+            int position = byteBuffer.position();
+            if (byteBuffer.remaining() < dataLength) {
+                throw new IOException("List truncated, length=" + dataLength + ".");
+            }
+            List<Object> list = LazyMessageList.index(byteBuffer.array(), byteBuffer.arrayOffset() + position,
+                    dataLength, schema, dictionary, intern, expectedSize);
+            byteBuffer.position(position + dataLength);
+            return list;
+        }
+        byte[] data = new byte[dataLength];
+        int n = Math.min(byteBuffer.remaining(), dataLength);
+        byteBuffer.get(data, 0, n);
+        IOUtils.readFully(input, data, n, dataLength - n);
+        discarded += dataLength - n;
+        return LazyMessageList.index(data, 0, dataLength, schema, dictionary, intern, expectedSize);
+    }
+
+    /**
+     * 集合帧的容器。知道元素个数时预先分配大小，每个元素至少占2个字节（group的开始和结束），maxSize 是按数据长度算出的上限。
+     *
+     * @param dataType 1是List，2是Set
+     */
+    private Collection<Object> newCollection(int dataType, int maxSize) {
+        int size = Math.min(expectedSize, Math.min(maxSize, MAX_PRESIZE));
+        if (dataType == 2) {
+            switch (containerKind) {
+                case ProtobufConstants.CONTAINER_LINKED:
+                    return size > 0 ? new LinkedHashSet<>(capacity(size)) : new LinkedHashSet<>();
+                case ProtobufConstants.CONTAINER_SORTED:
+                    return new TreeSet<>();
+                default:
+                    return size > 0 ? new HashSet<>(capacity(size)) : new HashSet<>();
+            }
+        }
+        if (containerKind == ProtobufConstants.CONTAINER_LINKED) {
+            return new LinkedList<>();
+        }
+        return size > 0 ? new ArrayList<>(size) : new ArrayList<>();
+    }
+
+    /**
+     * 声明的是具体的容器（比如 ArrayList、LinkedList、TreeSet），读出来的集合不是这个类型时拷贝到声明的容器中
+     */
+    private static Collection<?> declared(Class<?> cls, Collection<?> collection) throws IOException {
+        if (cls.isInstance(collection)) {
+            return collection;
+        }
+        Collection<Object> result = newCollection(cls, collection.size());
+        result.addAll(collection);
+        return result;
+    }
+
+    /**
+     * 按声明的类型创建容器，能放下 size 个元素
+     */
+    @SuppressWarnings("unchecked")
+    private static Collection<Object> newCollection(Class<?> cls, int size) throws IOException {
+        if (cls.isAssignableFrom(ArrayList.class)) {
+            return new ArrayList<>(size);
+        }
+        if (cls.isAssignableFrom(LinkedList.class)) {
+            return new LinkedList<>();
+        }
+        if (cls.isAssignableFrom(HashSet.class)) {
+            return new HashSet<>(capacity(size));
+        }
+        if (Collection.class.isAssignableFrom(cls) && !cls.isInterface()
+                && !Modifier.isAbstract(cls.getModifiers())) {
+            try {
+                return (Collection<Object>) cls.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new IOException("Can not create collection " + cls.getName() + ".", e);
+            }
+        }
+        throw new IOException("Collection can not be read as " + cls.getName() + ".");
+    }
+
+    private Map<String, Object> newMap(int maxSize) {
+        return newMap(expectedSize, maxSize);
+    }
+
+    private Map<String, Object> newMap(int expected, int maxSize) {
+        int size = Math.min(expected, Math.min(maxSize, MAX_PRESIZE));
+        switch (containerKind) {
+            case ProtobufConstants.CONTAINER_LINKED:
+                return size > 0 ? new LinkedHashMap<>(capacity(size)) : new LinkedHashMap<>();
+            case ProtobufConstants.CONTAINER_SORTED:
+                return new TreeMap<>();
+            default:
+                return size > 0 ? new HashMap<>(capacity(size)) : new HashMap<>();
+        }
+    }
+
+    /**
+     * 放下size个元素不需要扩容的 HashMap 初始容量（负载因子0.75）
+     */
+    private static int capacity(int size) {
+        return (int) (size / 0.75f) + 1;
+    }
+
+    private static Object empty(byte dataType) {
+        switch (dataType) {
+            case 1:
+                return Collections.emptyList();
+            case 2:
+                return Collections.emptySet();
+            case 3:
+                return Collections.emptyMap();
+            default: // 对象
+                return null;
+        }
+    }
+
+    /**
+     * 解码一帧数据。数据已经在ByteBuffer中时直接按偏移量和长度在底层数组上解码，不再拷贝。
+     * 否则说明数据超过了窗口大小，这时窗口里剩下的数据和流中剩余的部分拼起来，
+     * 交给 protostuff 从流中解码，只占用一个窗口大小的缓冲区。
+     */
+    private <T> void mergeFrom(boolean buffered, int dataLength, T message, Schema<T> schema) throws IOException {
+        if (buffered) {
+            int position = byteBuffer.position();
+            if (dictionary || intern) {
+                StringDictionary.mergeFrom(byteBuffer.array(), byteBuffer.arrayOffset() + position, dataLength,
+                        message, schema, dictionary, intern);
+            } else {
+                ProtostuffIOUtil.mergeFrom(byteBuffer.array(), byteBuffer.arrayOffset() + position, dataLength,
+                        message, schema);
+            }
+            byteBuffer.position(position + dataLength);
+            return;
+        }
+        SerializationMetrics.getInstance().increment(SerializationMetrics.STREAM_DECODE);
+        int remaining = byteBuffer.remaining();
+        discarded += dataLength - remaining; // 直接从流中读取，不经过窗口
+        InputStream head = new ByteArrayInputStream(byteBuffer.array(), byteBuffer.position(), remaining);
+        byteBuffer.position(byteBuffer.limit());
+        InputStream frame = new SequenceInputStream(head, new BoundedInputStream(input, dataLength - remaining));
+        ProtostuffIOUtil.mergeFrom(frame, message, schema, LinkedBuffer.allocate(Math.max(window, LinkedBuffer.MIN_BUFFER_SIZE)));
+    }
 }
@@ -1,11 +1,13 @@
 package com.xueershangda.dubbo.serialize.protobuf;
 
 import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.Cleanable;
 import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.alibaba.dubbo.remoting.buffer.ChannelBuffer;
+import com.alibaba.dubbo.remoting.buffer.ChannelBufferOutputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
 import io.protostuff.*;
-import io.protostuff.runtime.RuntimeSchema;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -14,36 +16,143 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
 
 /**
  * 基于 Protobuf的对象序列化。第一个字节是类型，第 2-5是数据长度。基本类型使用ByteBuffer来处理。对象使用 Protobuf（并且保存对象类型）。
+ * <p>
+ * ByteBuffer 和 LinkedBuffer 都从 {@link BufferArena} 中取得，flushBuffer 或者 cleanup 之后归还。
+ * 对象和集合先占住类型和长度的位置，protostuff 通过 LinkedBuffer 分段直接写入 ByteBuffer，写完再回填长度。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#COMPACT_KEY} 后，int、long、String、byte[]、对象和集合使用紧凑格式，
+ * 格式见 {@link ProtobufConstants#COMPACT_FLAG}。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#COMPRESSOR_KEY} 后，超过阈值的帧写完之后在原地压缩，
+ * 替换成 {@link ProtobufConstants#COMPRESSED} 帧；小报文不受影响。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#CHUNKED_KEY} 后，较大的 List 和 Set 分块写入（见 {@link ProtobufConstants#CHUNKED}），
+ * 写完一块就交给 output，ByteBuffer 不再随着结果的大小增长。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#PARALLEL_KEY} 后，较大的集合和 Map 由 {@link ParallelEncoder} 分段并行编码。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#COLLECTION_COUNT_KEY} 后，集合帧前面加上元素个数和容器类型（{@link ProtobufConstants#COUNTED}）。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#NATIVE_MESSAGES_KEY} 后，protobuf-java 生成的消息（{@link ProtobufConstants#PROTOBUF}）
+ * 用它自己的 writeTo 直接编码到 ByteBuffer 中。
+ * <p>
+ * URL 上配置 {@link ProtobufConstants#STRING_MAP_KEY} 后，key 和 value 都是 String 的 Map（attachments）
+ * 按 {@link ProtobufConstants#STRING_MAP} 写入，writeUTF 写入的字符串记录下来供它引用。
+ * <p>
+ * URL 上的 {@link ProtobufConstants#VERSION_KEY} 决定写入的格式版本：1 只写最初的格式；2 在第一帧前面写入版本头。
+ * <p>
+ * output 是 Dubbo 编码时的 ChannelBufferOutputStream 并且底层是堆内存时（见 {@link ProtobufConstants#DIRECT_KEY}），
+ * byteBuffer 是 ChannelBuffer 的数组的视图，下标和 ChannelBuffer 的下标相同，数据直接编码进去，帧头也在原地回填，
+ * flush 时只移动 writerIndex，没有中间的拷贝。扩容前先把 writerIndex 移到已写入的位置，扩容时这些数据会被一起拷贝。
+ * <p>
+ * 不再逐个调用打印 debug 日志，每一帧的类型、长度和耗时见 {@link SerializationMetrics} 和 {@link FlightRecorder}。
  *
  * @author yinlei
  * @since 2018/9/11 12:29
  */
-public class ProtobufObjectOutput implements ObjectOutput {
-
-    private static final Logger LOGGER = LogManager.getLogger(ProtobufObjectOutput.class);
+public class ProtobufObjectOutput implements ObjectOutput, Cleanable {
 
     private OutputStream output;
     private ByteBuffer byteBuffer;
+    private LinkedBuffer linkedBuffer;
+    private BufferOutputStream bufferStream;
+    private boolean compact;
+    /** 为null时不压缩 */
+    private FrameCompressor compressor;
+    private int compressThreshold;
+    /** 异常的写入方式，见 {@link ProtobufConstants#EXCEPTION_KEY} */
+    private String exceptionMode = ProtobufConstants.EXCEPTION_SIMPLE;
+    private boolean dictionary;
+    /** 集合帧前面是否写入元素个数和容器类型 */
+    private boolean counted;
+    /** 分块写入时每一块的大小，0表示不分块 */
+    private int chunkSize;
+    /** 分块写入时已经交给 output 的字节数 */
+    private long flushed;
+    /** 分块写入时已经写完的块数 */
+    private int chunks;
+    /** Integer、Long、Double 的List是否按基本类型数组写入 */
+    private boolean packed;
+    /** protobuf-java 的消息是否按 {@link ProtobufConstants#PROTOBUF} 写入，否则和普通对象一样使用 RuntimeSchema */
+    private boolean nativeMessages;
+    /** 还没有写入的版本号，0表示不写版本头，见 {@link ProtobufConstants#PREAMBLE} */
+    private int preamble;
+    /** 并行编码的元素个数阈值，0表示不并行 */
+    private int parallelThreshold;
+    private int parallelThreads;
+    /** String 的 Map 是否按 {@link ProtobufConstants#STRING_MAP} 写入 */
+    private boolean stringMap;
+    /** writeUTF 写入的字符串，STRING_MAP 帧中相同的值引用它们，见 {@link StringMapCodec} */
+    private String[] utfStrings;
+    private int utfCount;
+    /** 直接写入时的 ChannelBuffer，为null时先写到从 BufferArena 取得的 ByteBuffer 中 */
+    private ChannelBuffer channelBuffer;
 
     public ProtobufObjectOutput(URL url, OutputStream output) {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Create ProtobufObjectOutput, URL=[{}].", url.toFullString());
-        }
-        this.byteBuffer = ByteBuffer.allocate(1024);
         this.output = output;
+        boolean direct = ProtobufConstants.DEFAULT_DIRECT;
+        if (url != null) {
+            direct = url.getParameter(ProtobufConstants.DIRECT_KEY, ProtobufConstants.DEFAULT_DIRECT);
+            this.compact = url.getParameter(ProtobufConstants.COMPACT_KEY, ProtobufConstants.DEFAULT_COMPACT);
+            this.compressor = FrameCompressors.get(url.getParameter(ProtobufConstants.COMPRESSOR_KEY));
+            this.compressThreshold = url.getParameter(ProtobufConstants.COMPRESS_THRESHOLD_KEY,
+                    ProtobufConstants.DEFAULT_COMPRESS_THRESHOLD);
+            this.exceptionMode = url.getParameter(ProtobufConstants.EXCEPTION_KEY, ProtobufConstants.EXCEPTION_SIMPLE);
+            this.dictionary = url.getParameter(ProtobufConstants.DICTIONARY_KEY, ProtobufConstants.DEFAULT_DICTIONARY);
+            this.packed = url.getParameter(ProtobufConstants.PACKED_KEY, ProtobufConstants.DEFAULT_PACKED);
+            this.nativeMessages = url.getParameter(ProtobufConstants.NATIVE_MESSAGES_KEY,
+                    ProtobufConstants.DEFAULT_NATIVE_MESSAGES);
+            this.counted = url.getParameter(ProtobufConstants.COLLECTION_COUNT_KEY,
+                    ProtobufConstants.DEFAULT_COLLECTION_COUNT);
+            this.stringMap = url.getParameter(ProtobufConstants.STRING_MAP_KEY, ProtobufConstants.DEFAULT_STRING_MAP);
+            if (url.getParameter(ProtobufConstants.CHUNKED_KEY, ProtobufConstants.DEFAULT_CHUNKED)) {
+                this.chunkSize = Math.max(1, url.getParameter(ProtobufConstants.CHUNK_SIZE_KEY,
+                        ProtobufConstants.DEFAULT_CHUNK_SIZE));
+            }
+            if (url.getParameter(ProtobufConstants.PARALLEL_KEY, ProtobufConstants.DEFAULT_PARALLEL)) {
+                this.parallelThreshold = Math.max(1, url.getParameter(ProtobufConstants.PARALLEL_THRESHOLD_KEY,
+                        ProtobufConstants.DEFAULT_PARALLEL_THRESHOLD));
+                this.parallelThreads = url.getParameter(ProtobufConstants.PARALLEL_THREADS_KEY,
+                        ProtobufConstants.DEFAULT_PARALLEL_THREADS);
+            }
+            int version = url.getParameter(ProtobufConstants.VERSION_KEY, 0);
+            if (version == ProtobufConstants.VERSION_1) { // 没有升级的节点也能读取
+                this.compact = false;
+                this.compressor = null;
+                this.exceptionMode = ProtobufConstants.EXCEPTION_SIMPLE;
+                this.dictionary = false;
+                this.counted = false;
+                this.stringMap = false;
+                this.chunkSize = 0;
+                this.packed = false;
+                this.nativeMessages = false;
+            } else if (version >= ProtobufConstants.VERSION_2) {
+                this.preamble = Math.min(version, ProtobufConstants.CURRENT_VERSION);
+            }
+        }
+        if (direct && output instanceof ChannelBufferOutputStream) {
+            ChannelBuffer buffer = ((ChannelBufferOutputStream) output).buffer();
+            if (buffer.hasArray()) { // 直接内存还是先写到 ByteBuffer 中，编码需要数组
+                this.channelBuffer = buffer;
+            }
+        }
+        this.byteBuffer = acquireBuffer();
     }
 
     @Override
     public void writeBool(boolean v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeBool, value=[{}].", v);
-        }
         check(2);
         byteBuffer.put((byte) 13); // 数据类型
         byteBuffer.put(v ? (byte)1 : 0);
@@ -51,9 +160,6 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeByte(byte v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeByte, value=[{}].", v);
-        }
         check(2);
         byteBuffer.put((byte) 9);
         byteBuffer.put(v);
@@ -61,9 +167,6 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeShort(short v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeShort, value=[{}].", v);
-        }
         check(3);
         byteBuffer.put((byte) 11);
         byteBuffer.putShort(v);
@@ -71,8 +174,10 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeInt(int v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeInt, value=[{}].", v);
+        if (compact) {
+            check(6);
+            putCompactHeader(ProtobufConstants.COMPACT_INT, Varints.encodeZigZag32(v));
+            return;
         }
         check(5);
         byteBuffer.put((byte) 4);
@@ -81,8 +186,16 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeLong(long v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeLong, value=[{}].", v);
+        if (compact) {
+            check(11);
+            long zigzag = Varints.encodeZigZag64(v);
+            if (zigzag >= 0 && zigzag < ProtobufConstants.COMPACT_VARINT) {
+                byteBuffer.put(compactTag(ProtobufConstants.COMPACT_LONG, (int) zigzag));
+            } else {
+                byteBuffer.put(compactTag(ProtobufConstants.COMPACT_LONG, ProtobufConstants.COMPACT_VARINT));
+                Varints.putVarLong(byteBuffer, zigzag);
+            }
+            return;
         }
         check(9);
         byteBuffer.put((byte) 5);
@@ -91,9 +204,6 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeFloat(float v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeFloat, value=[{}].", v);
-        }
         check(5);
         byteBuffer.put((byte) 10);
         byteBuffer.putFloat(v);
@@ -101,9 +211,6 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeDouble(double v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeDouble, value=[{}].", v);
-        }
         check(9);
         byteBuffer.put((byte) 6);
         byteBuffer.putDouble(v);
@@ -111,8 +218,28 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void writeUTF(String v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeUTF(String), value=[{}].", v);
+        if (stringMap && v != null && !v.isEmpty() && utfCount < StringMapCodec.MAX_REFS) {
+            if (utfStrings == null) {
+                utfStrings = new String[StringMapCodec.MAX_REFS];
+            }
+            utfStrings[utfCount++] = v;
+        }
+        writeString(v);
+    }
+
+    /**
+     * 字符串帧。writeObject 写入的字符串不经过 writeUTF，不会被 STRING_MAP 帧引用（可能被压缩，读取的一方也不一定用 readUTF）
+     */
+    private void writeString(String v) throws IOException {
+        if (compact) {
+            // 和原格式一样，长度为0表示null
+            int len = v == null ? 0 : Utf8.encodedLength(v);
+            check(6 + len);
+            putCompactHeader(ProtobufConstants.COMPACT_STRING, len);
+            if (v != null) {
+                Utf8.encode(v, byteBuffer);
+            }
+            return;
         }
         check(1);
         byteBuffer.put((byte) 12); // 数据类型
@@ -120,33 +247,36 @@ public class ProtobufObjectOutput implements ObjectOutput {
             check(4);
             byteBuffer.putInt(0); // 长度为0
         } else {
-            byte[] bytes = v.getBytes("UTF-8");
-            int len = bytes.length;
+            int len = Utf8.encodedLength(v);
             check(4 + len);
             byteBuffer.putInt(len); // int 占 4 位
-            byteBuffer.put(bytes); // 存入数据
+            Utf8.encode(v, byteBuffer); // 直接编码到buffer中
         }
     }
 
     @Override
     public void writeBytes(byte[] v) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeBytes, byteArrayLength=[{}].", v != null ? v.length : 0);
-        }
-        if (v == null || v.length == 0) {
+        if ((v == null || v.length == 0) && !compact) {
             check(5);
             byteBuffer.put((byte) 14);
             byteBuffer.putInt(0);
         } else {
-            writeBytes(v, 0 , v.length);
+            writeBytes(v, 0 , v == null ? 0 : v.length);
         }
     }
 
     @Override
     public void writeBytes(byte[] v, int off, int len) throws IOException {
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("writeBytes(offset), byteArrayLength=[{}], offset=[{}], len=[{}].",
-                    v != null ? v.length : 0, off, len);
+        if (compact) {
+            if (v == null) {
+                len = 0;
+            }
+            check(6 + len);
+            putCompactHeader(ProtobufConstants.COMPACT_BYTES, len);
+            if (len > 0) {
+                byteBuffer.put(v, off, len);
+            }
+            return;
         }
         check(1);
         byteBuffer.put((byte) 14);
@@ -162,32 +292,437 @@ public class ProtobufObjectOutput implements ObjectOutput {
 
     @Override
     public void flushBuffer() throws IOException {
-        byteBuffer.flip();
-        int limit = byteBuffer.limit();
-        byte[] bytes = new byte[limit];
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("flushBuffer, byteArrayLength=[{}].", limit);
-        }
-        byteBuffer.get(bytes);
-        output.write(bytes);
+        if (byteBuffer == null) { // 已经flush过了
+            output.flush();
+            return;
+        }
+        if (channelBuffer != null) {
+            channelBuffer.writerIndex(byteBuffer.position());
+        } else {
+            output.write(byteBuffer.array(), byteBuffer.arrayOffset(), byteBuffer.position());
+        }
         output.flush();
+        cleanup();
+    }
+
+    /**
+     * 把缓冲区还给当前线程的 {@link BufferArena}。flush之后再写入会重新取一个。
+     */
+    @Override
+    public void cleanup() {
+        BufferArena arena = BufferArena.current();
+        if (byteBuffer != null) {
+            if (channelBuffer == null) { // ChannelBuffer 的视图不归还
+                arena.releaseByteBuffer(byteBuffer);
+            }
+            byteBuffer = null;
+        }
+        if (linkedBuffer != null) {
+            arena.releaseLinkedBuffer(linkedBuffer);
+            linkedBuffer = null;
+        }
+    }
+
+    private LinkedBuffer linkedBuffer() {
+        if (linkedBuffer == null) {
+            linkedBuffer = BufferArena.current().acquireLinkedBuffer();
+        }
+        return linkedBuffer;
+    }
+
+    /**
+     * 写入一帧对象或者集合数据：先占住类型和长度的位置，protostuff 写完数据之后再回填长度。
+     *
+     * @return 帧的总长度（包括5个字节的头）
+     */
+    private int writeFrame(byte type, Object obj, Schema schema) throws IOException {
+        if (dictionary) {
+            check(1);
+            byteBuffer.put(ProtobufConstants.DICTIONARY);
+        }
+        if (compact) {
+            return writeCompactFrame(type, obj, schema);
+        }
+        check(5);
+        int start = byteBuffer.position();
+        byteBuffer.put(type);
+        byteBuffer.putInt(0); // 长度，写完数据后回填
+        int totalLength = 5 + writeData(obj, schema);
+        // 扩容不改变已写入数据的位置，start 依然有效
+        byteBuffer.putInt(start + 1, totalLength);
+        return totalLength;
+    }
+
+    /**
+     * 紧凑格式的对象和集合。先按3个字节的varint预留长度（能表示2M），写完数据后：
+     * 长度不超过14直接放进类型字节，小于128用1个字节，这两种情况把数据往前挪几个字节（数据都很短）；
+     * 小于2M时回填固定3个字节的varint，数据不动；更长的数据往后挪，相对于编码本身的开销可以忽略。
+     *
+     * @return 帧的总长度
+     */
+    private int writeCompactFrame(byte type, Object obj, Schema schema) throws IOException {
+        check(4);
+        int start = byteBuffer.position();
+        int dataStart = start + 4;
+        byteBuffer.position(dataStart);
+        int dataLength = writeData(obj, schema);
+        int headerSize;
+        if (dataLength < ProtobufConstants.COMPACT_VARINT) {
+            headerSize = 1;
+        } else if (dataLength < 1 << 21) {
+            headerSize = dataLength < 128 ? 2 : 4;
+        } else {
+            headerSize = 1 + Varints.varIntSize(dataLength);
+        }
+        if (headerSize != 4) {
+            check(headerSize - 4);
+            byte[] array = byteBuffer.array();
+            int offset = byteBuffer.arrayOffset();
+            System.arraycopy(array, offset + dataStart, array, offset + start + headerSize, dataLength);
+        }
+        if (headerSize == 1) {
+            byteBuffer.put(start, compactTag(type, dataLength));
+        } else {
+            byteBuffer.put(start, compactTag(type, ProtobufConstants.COMPACT_VARINT));
+            Varints.putVarInt(byteBuffer, start + 1, dataLength, headerSize - 1);
+        }
+        byteBuffer.position(start + headerSize + dataLength);
+        return headerSize + dataLength;
+    }
+
+    /**
+     * protostuff 把数据直接写入 ByteBuffer 的当前位置
+     *
+     * @return 数据的长度
+     */
+    private int writeData(Object obj, Schema schema) throws IOException {
+        if (bufferStream == null) {
+            bufferStream = new BufferOutputStream();
+        }
+        LinkedBuffer buffer = linkedBuffer();
+        try {
+            if (dictionary) {
+                return StringDictionary.writeTo(bufferStream, obj, schema, buffer);
+            }
+            if (parallelThreshold > 0 && ParallelEncoder.accepts(obj, parallelThreshold)) {
+                return ParallelEncoder.encode(obj, schema, bufferStream, buffer, parallelThreads);
+            }
+            return ProtostuffIOUtil.writeTo(bufferStream, obj, schema, buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 分块写入集合，格式见 {@link ProtobufConstants#CHUNKED}。每写完一块，连同前面的数据一起交给 output，
+     * ByteBuffer 只需要放下一块。第一块就写完了所有元素时改成普通的集合帧。
+     */
+    private void writeChunked(byte type, Collection<?> collection, Schema<Object> schema) throws IOException {
+        if (dictionary) {
+            check(1);
+            byteBuffer.put(ProtobufConstants.DICTIONARY);
+        }
+        check(6);
+        int start = byteBuffer.position();
+        byteBuffer.position(start + 6); // 类型 + 集合类型 + 第一块的长度
+        Iterator<?> iterator = collection.iterator();
+        int dataLength = writeChunk(iterator, schema);
+        if (!iterator.hasNext()) {
+            finishFrame(type, start, start + 6, dataLength);
+            return;
+        }
+        byteBuffer.put(start, ProtobufConstants.CHUNKED);
+        byteBuffer.put(start + 1, type);
+        byteBuffer.putInt(start + 2, dataLength);
+        while (iterator.hasNext()) {
+            flushChunk();
+            check(4);
+            int lengthIndex = byteBuffer.position();
+            byteBuffer.putInt(0);
+            int chunkLength = writeChunk(iterator, schema);
+            if (chunkLength == 0) { // 剩下的都是null，去掉这一块，否则会被当作结束标记
+                byteBuffer.position(lengthIndex);
+                break;
+            }
+            byteBuffer.putInt(lengthIndex, chunkLength);
+        }
+        check(4);
+        byteBuffer.putInt(0); // 结束标记
+    }
+
+    /**
+     * 写入一块元素，和 MessageCollectionSchema 一样跳过null，写到超过 chunkSize 或者没有元素为止
+     *
+     * @return 这一块的长度
+     */
+    private int writeChunk(Iterator<?> iterator, Schema<Object> schema) throws IOException {
+        if (bufferStream == null) {
+            bufferStream = new BufferOutputStream();
+        }
+        LinkedBuffer buffer = linkedBuffer();
+        try {
+            ProtostuffOutput protostuffOutput = new ProtostuffOutput(buffer, bufferStream);
+            Output out = dictionary ? new StringDictionary.Writer(protostuffOutput) : protostuffOutput;
+            while (iterator.hasNext() && protostuffOutput.getSize() < chunkSize) {
+                Object element = iterator.next();
+                if (element != null) {
+                    out.writeObject(1, element, schema, true);
+                }
+            }
+            LinkedBuffer.writeTo(bufferStream, buffer);
+            return protostuffOutput.getSize();
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    /**
+     * 把 ByteBuffer 中已经写好的数据交给 output，腾出空间写下一块。直接写入时数据已经在 ChannelBuffer 中，只移动 writerIndex。
+     */
+    private void flushChunk() throws IOException {
+        chunks++;
+        if (channelBuffer != null) {
+            channelBuffer.writerIndex(byteBuffer.position());
+            return;
+        }
+        int length = byteBuffer.position();
+        output.write(byteBuffer.array(), byteBuffer.arrayOffset(), length);
+        flushed += length;
+        byteBuffer.clear();
+    }
+
+    /**
+     * 数据已经写在 dataStart 处，在 start 处写入普通的帧头（原格式或者紧凑格式），数据往前挪到帧头后面
+     */
+    private void finishFrame(byte type, int start, int dataStart, int dataLength) {
+        int headerSize;
+        if (!compact) {
+            headerSize = 5;
+        } else if (dataLength < ProtobufConstants.COMPACT_VARINT) {
+            headerSize = 1;
+        } else {
+            headerSize = 1 + Varints.varIntSize(dataLength);
+        }
+        if (start + headerSize != dataStart) {
+            byte[] array = byteBuffer.array();
+            int offset = byteBuffer.arrayOffset();
+            System.arraycopy(array, offset + dataStart, array, offset + start + headerSize, dataLength);
+        }
+        if (!compact) {
+            byteBuffer.put(start, type);
+            byteBuffer.putInt(start + 1, 5 + dataLength);
+        } else if (headerSize == 1) {
+            byteBuffer.put(start, compactTag(type, dataLength));
+        } else {
+            byteBuffer.put(start, compactTag(type, ProtobufConstants.COMPACT_VARINT));
+            Varints.putVarInt(byteBuffer, start + 1, dataLength, headerSize - 1);
+        }
+        byteBuffer.position(start + headerSize + dataLength);
+    }
+
+    /**
+     * Integer、Long、Double 的List按基本类型数组写入，不再逐个当作消息处理。
+     * 元素中有null或者类型不一致时返回false，什么都不写，按普通的List处理。
+     */
+    private boolean writePackedList(List list, Class cls) throws IOException {
+        // 反序列化出来的List，直接写底层数组
+        if (list instanceof PrimitiveLists.IntList) {
+            PrimitiveLists.IntList intList = (PrimitiveLists.IntList) list;
+            writeIntArray(ProtobufConstants.INT_LIST, intList.elements, intList.size);
+            return true;
+        }
+        if (list instanceof PrimitiveLists.LongList) {
+            PrimitiveLists.LongList longList = (PrimitiveLists.LongList) list;
+            writeLongArray(ProtobufConstants.LONG_LIST, longList.elements, longList.size);
+            return true;
+        }
+        if (list instanceof PrimitiveLists.DoubleList) {
+            PrimitiveLists.DoubleList doubleList = (PrimitiveLists.DoubleList) list;
+            writeDoubleArray(ProtobufConstants.DOUBLE_LIST, doubleList.elements, doubleList.size);
+            return true;
+        }
+
+        int size = list.size();
+        if (cls == Integer.class) {
+            check(arraySize(size, 4));
+            int start = byteBuffer.position();
+            byteBuffer.put(ProtobufConstants.INT_LIST);
+            byteBuffer.putInt(size);
+            for (Object o : list) {
+                if (!(o instanceof Integer)) {
+                    byteBuffer.position(start);
+                    SerializationMetrics.getInstance().increment(SerializationMetrics.PACKED_LIST_ROLLBACK);
+                    return false;
+                }
+                byteBuffer.putInt((Integer) o);
+            }
+            return true;
+        }
+        if (cls == Long.class) {
+            check(arraySize(size, 8));
+            int start = byteBuffer.position();
+            byteBuffer.put(ProtobufConstants.LONG_LIST);
+            byteBuffer.putInt(size);
+            for (Object o : list) {
+                if (!(o instanceof Long)) {
+                    byteBuffer.position(start);
+                    SerializationMetrics.getInstance().increment(SerializationMetrics.PACKED_LIST_ROLLBACK);
+                    return false;
+                }
+                byteBuffer.putLong((Long) o);
+            }
+            return true;
+        }
+        if (cls == Double.class) {
+            check(arraySize(size, 8));
+            int start = byteBuffer.position();
+            byteBuffer.put(ProtobufConstants.DOUBLE_LIST);
+            byteBuffer.putInt(size);
+            for (Object o : list) {
+                if (!(o instanceof Double)) {
+                    byteBuffer.position(start);
+                    SerializationMetrics.getInstance().increment(SerializationMetrics.PACKED_LIST_ROLLBACK);
+                    return false;
+                }
+                byteBuffer.putDouble((Double) o);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private void writeIntArray(byte type, int[] v, int length) throws IOException {
+        check(arraySize(length, 4));
+        byteBuffer.put(type);
+        byteBuffer.putInt(length);
+        byteBuffer.asIntBuffer().put(v, 0, length);
+        byteBuffer.position(byteBuffer.position() + length * 4);
+    }
+
+    private void writeLongArray(byte type, long[] v, int length) throws IOException {
+        check(arraySize(length, 8));
+        byteBuffer.put(type);
+        byteBuffer.putInt(length);
+        byteBuffer.asLongBuffer().put(v, 0, length);
+        byteBuffer.position(byteBuffer.position() + length * 8);
+    }
+
+    private void writeDoubleArray(byte type, double[] v, int length) throws IOException {
+        check(arraySize(length, 8));
+        byteBuffer.put(type);
+        byteBuffer.putInt(length);
+        byteBuffer.asDoubleBuffer().put(v, 0, length);
+        byteBuffer.position(byteBuffer.position() + length * 8);
+    }
+
+    /**
+     * 数组帧的总长度：类型 + 元素个数 + 元素
+     */
+    private static int arraySize(int length, int width) throws IOException {
+        long size = 5L + (long) length * width;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Array too large, length=" + length + ".");
+        }
+        return (int) size;
+    }
+
+    /**
+     * 空集合只写类型，长度为0
+     */
+    private void writeEmpty(byte type) {
+        if (compact) {
+            check(1);
+            byteBuffer.put(compactTag(type, 0));
+        } else {
+            check(5);
+            byteBuffer.put(type); // 类型
+            byteBuffer.putInt(0); // 长度
+        }
+    }
+
+    private static byte compactTag(int type, int nibble) {
+        return (byte) (ProtobufConstants.COMPACT_FLAG | type << 4 | nibble);
+    }
+
+    /**
+     * 写入紧凑格式的类型字节，value（按无符号处理）小于15时直接放在类型字节中，否则用varint跟在后面。
+     * 调用前需要 check 至少6个字节。
+     */
+    private void putCompactHeader(int type, int value) {
+        if (value >= 0 && value < ProtobufConstants.COMPACT_VARINT) {
+            byteBuffer.put(compactTag(type, value));
+        } else {
+            byteBuffer.put(compactTag(type, ProtobufConstants.COMPACT_VARINT));
+            Varints.putVarInt(byteBuffer, value);
+        }
     }
 
     private void writeBigNumber(String v, byte type) throws IOException {
-        byte[] bytes = v.getBytes("UTF-8");
-        int len = bytes.length;
+        int len = Utf8.encodedLength(v);
         check(5 + len);
         byteBuffer.put(type);
         byteBuffer.putInt(len);
-        byteBuffer.put(bytes);
+        Utf8.encode(v, byteBuffer);
     }
 
     @Override
     public void writeObject(Object obj) throws IOException {
-        if (obj == null) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject, object is null, maybe Heart beat.");
+        SerializationMetrics metrics = SerializationMetrics.getInstance();
+        long begin = metrics.begin();
+        check(0);
+        int start = byteBuffer.position();
+        long flushedBefore = flushed;
+        int chunksBefore = chunks;
+        doWriteObject(obj);
+        byte tag;
+        if (chunks != chunksBefore) { // 分块写入，前面的数据已经交给 output，不再压缩
+            tag = ProtobufConstants.CHUNKED;
+        } else {
+            if (compressor != null) {
+                compressFrame(start);
+            }
+            tag = byteBuffer.get(start);
+            if (tag == ProtobufConstants.DICTIONARY || tag == ProtobufConstants.COUNTED) { // 按后面真正的帧统计
+                tag = byteBuffer.get(start + 1);
             }
+        }
+        long size = flushed - flushedBefore + byteBuffer.position() - start;
+        metrics.recordEncode(tag, obj == null ? null : obj.getClass(), size, begin);
+    }
+
+    /**
+     * 从start开始的一帧超过阈值时原地压缩。压缩后加上头没有变小就保持原样。
+     */
+    private void compressFrame(int start) {
+        int rawLength = byteBuffer.position() - start;
+        if (rawLength < compressThreshold) {
+            return;
+        }
+        BufferArena arena = BufferArena.current();
+        byte[] scratch = arena.acquireScratch(compressor.maxCompressedLength(rawLength));
+        try {
+            byte[] array = byteBuffer.array();
+            int offset = byteBuffer.arrayOffset();
+            int compressedLength = compressor.compress(array, offset + start, rawLength, scratch, 0);
+            int frameLength = ProtobufConstants.COMPRESSED_HEADER_SIZE + compressedLength;
+            if (frameLength >= rawLength) {
+                SerializationMetrics.getInstance().increment(SerializationMetrics.INCOMPRESSIBLE);
+                return;
+            }
+            byteBuffer.position(start);
+            byteBuffer.put(ProtobufConstants.COMPRESSED);
+            byteBuffer.put(compressor.id());
+            byteBuffer.putInt(rawLength);
+            byteBuffer.putInt(compressedLength);
+            byteBuffer.put(scratch, 0, compressedLength);
+        } finally {
+            arena.releaseScratch(scratch);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void doWriteObject(Object obj) throws IOException {
+        if (obj == null) {
             writeBool(true);
             return;
         }
@@ -196,76 +731,52 @@ public class ProtobufObjectOutput implements ObjectOutput {
         if (obj instanceof List) {
             List list = (List) obj;
             if (list.isEmpty()) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("writeObject(List), List is empty.");
-                }
-                check(5);
-                byteBuffer.put((byte) 1); // 类型
-                byteBuffer.putInt(0); // 长度
+                writeEmpty((byte) 1);
                 return;
             }
             cls = list.get(0).getClass();
-            byte[] dataBytes = collectToBytes(cls, list);
-            int dataLength = dataBytes.length;
-            int totalLength = 5 + dataLength;
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(List<{}>), dataLength=[{}].", cls.getName(), totalLength);
-            }
-            check(totalLength);
-            byteBuffer.put((byte) 1); // 类型
-            byteBuffer.putInt(totalLength);
-            byteBuffer.put(dataBytes);
+            if (packed && writePackedList(list, cls)) {
+                return;
+            }
+            if (counted) {
+                writeCountedHeader((byte) 1, list, list.size());
+            }
+            if (chunkSize > 0) {
+                writeChunked((byte) 1, list, ProtobufSchemas.collectionSchema(cls).schema);
+                return;
+            }
+            writeFrame((byte) 1, list, ProtobufSchemas.collectionSchema(cls));
         } else if (obj instanceof Set) {
             Set set = (Set) obj;
             if (set.isEmpty()) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("writeObject(Set), Set is empty.");
-                }
-                check(5);
-                byteBuffer.put((byte) 2); // 类型
-                byteBuffer.putInt(0); // 长度
+                writeEmpty((byte) 2);
                 return;
             }
             cls = set.iterator().next().getClass();
-            byte[] dataBytes = collectToBytes(cls, set);
-            int dataLength = dataBytes.length;
-            // 9 = 1 + 4
-            int totalLength = 5 + dataLength;
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(Set<{}>), dataLength=[{}].", cls.getName(), totalLength);
-            }
-            check(totalLength);
-            byteBuffer.put((byte) 2); // 类型
-            byteBuffer.putInt(totalLength);
-            byteBuffer.put(dataBytes);
+            if (counted) {
+                writeCountedHeader((byte) 2, set, set.size());
+            }
+            if (chunkSize > 0) {
+                writeChunked((byte) 2, set, ProtobufSchemas.collectionSchema(cls).schema);
+                return;
+            }
+            writeFrame((byte) 2, set, ProtobufSchemas.collectionSchema(cls));
         } else if (obj instanceof Map) {
             Map map = (Map) obj;
             if (map.isEmpty()) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("writeObject(Map), Map is empty.");
-                }
-                check(5);
-                byteBuffer.put((byte) 3); // 类型
-                byteBuffer.putInt(0); // 长度
+                writeEmpty((byte) 3);
+                return;
+            }
+            if (stringMap && writeStringMap(map)) {
                 return;
             }
             // value对象的类型
             cls = map.values().iterator().next().getClass();
-            byte[] mapBytes = mapToBytes(cls, map);
-            int dataLength = mapBytes.length;
-            // 9 = 1 + 4
-            int totalLength = 5 + dataLength;
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(Map<String, {}>), dataLength=[{}].", cls.getName(), totalLength);
-            }
-            check(totalLength);
-            byteBuffer.put((byte) 3); // 类型
-            byteBuffer.putInt(totalLength);
-            byteBuffer.put(mapBytes);
-        } else if (obj instanceof Number) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(Number), value=[{}].", obj);
+            if (counted) {
+                writeCountedHeader((byte) 3, map, map.size());
             }
+            writeFrame((byte) 3, map, ProtobufSchemas.mapSchema(cls));
+        } else if (obj instanceof Number) {
             if (obj instanceof Integer) {
                 int v = (int) obj;
                 writeInt(v);
@@ -296,106 +807,238 @@ public class ProtobufObjectOutput implements ObjectOutput {
                 throw new RuntimeException("不支持的数字类型:" + obj.getClass().getName());
             }
         } else if (obj instanceof String) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(String), value=[{}].", obj);
-            }
             String v = (String) obj;
-            writeUTF(v);
+            writeString(v);
         } else if (obj instanceof Boolean) {
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(Boolean), value=[{}].", obj);
-            }
             boolean b = (boolean) obj;
             writeBool(b);
         } else if (obj instanceof byte[]) {
             byte[] bytes = (byte[]) obj;
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(bytes), dataLength=[{}].", bytes.length);
-            }
             writeBytes(bytes);
+        } else if (obj instanceof int[]) {
+            int[] v = (int[]) obj;
+            writeIntArray(ProtobufConstants.INT_ARRAY, v, v.length);
+        } else if (obj instanceof long[]) {
+            long[] v = (long[]) obj;
+            writeLongArray(ProtobufConstants.LONG_ARRAY, v, v.length);
+        } else if (obj instanceof double[]) {
+            double[] v = (double[]) obj;
+            writeDoubleArray(ProtobufConstants.DOUBLE_ARRAY, v, v.length);
+        } else if (obj instanceof float[]) {
+            float[] v = (float[]) obj;
+            check(arraySize(v.length, 4));
+            byteBuffer.put(ProtobufConstants.FLOAT_ARRAY);
+            byteBuffer.putInt(v.length);
+            byteBuffer.asFloatBuffer().put(v);
+            byteBuffer.position(byteBuffer.position() + v.length * 4);
+        } else if (obj instanceof short[]) {
+            short[] v = (short[]) obj;
+            check(arraySize(v.length, 2));
+            byteBuffer.put(ProtobufConstants.SHORT_ARRAY);
+            byteBuffer.putInt(v.length);
+            byteBuffer.asShortBuffer().put(v);
+            byteBuffer.position(byteBuffer.position() + v.length * 2);
         } else if (obj.getClass().isArray()) {
             // 数组的序列化是支持的，但是性能没有List好，建议使用List代替
             throw new UnsupportedEncodingException("Please use List instead of.");
+        } else if (obj instanceof MessageLite && nativeMessages) {
+            writeMessage((MessageLite) obj);
+        } else if (obj instanceof Throwable && !ProtobufConstants.EXCEPTION_SIMPLE.equals(exceptionMode)) {
+            // cause链和栈，类名等字符串去重
+            ExceptionCodec.Encoder encoder = new ExceptionCodec.Encoder((Throwable) obj,
+                    ProtobufConstants.EXCEPTION_STACK.equals(exceptionMode));
+            int size = encoder.size();
+            check(5 + size);
+            byteBuffer.put(ProtobufConstants.EXCEPTION);
+            byteBuffer.putInt(size);
+            encoder.writeTo(byteBuffer);
         } else if (obj instanceof Throwable) {
             // 因为异常的超类Throwable中的cause是引用的自己，有循环引用。目前protostuff还不能处理，fst倒是可以。
             // 所以，自己简单将其序列化，只返回类名和message。
             String className = obj.getClass().getName();
-            byte[] nameBytes = className.getBytes("UTF-8");
             Throwable throwable = (Throwable) obj;
             String message = throwable.getMessage();
-            byte[] messageBytes = null;
-            if (message != null) {
-                messageBytes = message.getBytes("UTF-8");
-            }
-            int nameLength = nameBytes.length;
+            int nameLength = Utf8.encodedLength(className);
             int totalLength = nameLength;
-            if (messageBytes != null) {
-                totalLength += messageBytes.length;
-            }
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject(Throwable<{}>), message=[{}].", className, message);
+            if (message != null) {
+                totalLength += Utf8.encodedLength(message);
             }
             check(totalLength + 9);
             byteBuffer.put((byte) 16);
             byteBuffer.putInt(totalLength);
             byteBuffer.putInt(nameLength);
-            byteBuffer.put(nameBytes);
-            if (messageBytes != null) {
-                byteBuffer.put(messageBytes);
+            Utf8.encode(className, byteBuffer);
+            if (message != null) {
+                Utf8.encode(message, byteBuffer);
             }
         } else {
             cls = obj.getClass();
-            Schema schema = RuntimeSchema.getSchema(cls);
-            LinkedBuffer buffer = LinkedBuffer.allocate();
-            @SuppressWarnings("unchecked")
-            byte[] bytes = ProtostuffIOUtil.toByteArray(obj, schema, buffer);
-            int length = bytes.length;
-//            String className = cls.getName();
-//            byte[] nameBytes = className.getBytes("UTF-8");
-//            int nameLength = nameBytes.length;
-//            int totalLength = 9 + nameLength + length;
-            int totalLength = 5 + length;
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("writeObject({}), dataLength=[{}].", cls.getName(), totalLength);
-            }
-            check(totalLength);
-            byteBuffer.put((byte) 0);
-            byteBuffer.putInt(totalLength);
-//            byteBuffer.putInt(nameLength);
-//            byteBuffer.put(nameBytes);
-            byteBuffer.put(bytes);
+            Schema schema = ProtobufSchemas.getSchema(cls);
+            writeFrame((byte) 0, obj, schema);
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private byte[] mapToBytes(Class clazz, Map map) {
-        Schema schema = RuntimeSchema.getSchema(clazz);
-        StringMapSchema collectionSchema = new StringMapSchema(schema);
-        LinkedBuffer buffer = LinkedBuffer.allocate(1024);
-        return ProtostuffIOUtil.toByteArray(map, collectionSchema, buffer);
+    /**
+     * protobuf-java 的消息，格式见 {@link ProtobufConstants#PROTOBUF}。长度是已知的，直接编码到 ByteBuffer 的数组中
+     */
+    private void writeMessage(MessageLite message) throws IOException {
+        int size = message.getSerializedSize();
+        check(5 + size);
+        byteBuffer.put(ProtobufConstants.PROTOBUF);
+        byteBuffer.putInt(size);
+        int position = byteBuffer.position();
+        CodedOutputStream coded = CodedOutputStream.newInstance(byteBuffer.array(),
+                byteBuffer.arrayOffset() + position, size);
+        message.writeTo(coded);
+        coded.checkNoSpaceLeft();
+        byteBuffer.position(position + size);
     }
 
-    @SuppressWarnings("unchecked")
-    private byte[] collectToBytes(Class clazz, Collection list) {
-        Schema schema = RuntimeSchema.getSchema(clazz);
-        MessageCollectionSchema collectionSchema = new MessageCollectionSchema(schema);
-        LinkedBuffer buffer = LinkedBuffer.allocate(1024);
-        return ProtostuffIOUtil.toByteArray(list, collectionSchema, buffer);
+    /**
+     * key 和 value 都是 String 时按 {@link ProtobufConstants#STRING_MAP} 写入，长度写完再回填
+     *
+     * @return 有不是 String 的 key 或 value 时返回false，什么都不写
+     */
+    private boolean writeStringMap(Map<?, ?> map) throws IOException {
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            Object value = entry.getValue();
+            if (!(entry.getKey() instanceof String) || value != null && !(value instanceof String)) {
+                return false;
+            }
+        }
+        if (counted) {
+            writeCountedHeader((byte) 3, map, map.size());
+        }
+        check(10);
+        int start = byteBuffer.position();
+        byteBuffer.put(ProtobufConstants.STRING_MAP);
+        byteBuffer.putInt(0);
+        Varints.putVarInt(byteBuffer, map.size());
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            writeMapString((String) entry.getKey());
+            writeMapString((String) entry.getValue());
+        }
+        byteBuffer.putInt(start + 1, byteBuffer.position() - start - 5);
+        return true;
+    }
+
+    private void writeMapString(String s) {
+        check(1);
+        if (s == null) {
+            byteBuffer.put((byte) StringMapCodec.NULL);
+            return;
+        }
+        int token = StringMapCodec.staticToken(s);
+        if (token < 0) {
+            token = StringMapCodec.refToken(s, utfStrings, utfCount);
+        }
+        if (token >= 0) {
+            byteBuffer.put((byte) token);
+            return;
+        }
+        int len = Utf8.encodedLength(s);
+        check(6 + len);
+        byteBuffer.put((byte) StringMapCodec.LITERAL);
+        Varints.putVarInt(byteBuffer, len);
+        Utf8.encode(s, byteBuffer);
+    }
+
+    /**
+     * 集合帧前面的元素个数和容器类型，格式见 {@link ProtobufConstants#COUNTED}
+     */
+    private void writeCountedHeader(byte type, Object container, int size) {
+        check(8);
+        byteBuffer.put(ProtobufConstants.COUNTED);
+        byteBuffer.put(type);
+        byteBuffer.put(containerKind(container));
+        Varints.putVarInt(byteBuffer, size);
+    }
+
+    /**
+     * 容器类型。带 Comparator 的 TreeSet、TreeMap 在读取的一方无法还原，按普通的容器处理。
+     */
+    private static byte containerKind(Object container) {
+        if (container instanceof LinkedList || container instanceof LinkedHashSet
+                || container instanceof LinkedHashMap) {
+            return ProtobufConstants.CONTAINER_LINKED;
+        }
+        if (container instanceof SortedSet && ((SortedSet<?>) container).comparator() == null
+                || container instanceof SortedMap && ((SortedMap<?, ?>) container).comparator() == null) {
+            return ProtobufConstants.CONTAINER_SORTED;
+        }
+        return ProtobufConstants.CONTAINER_DEFAULT;
     }
 
     /**
      * 检查buffer中的剩余空间是否能放下新加入的数据，不行就扩容。
-     * 扩容的大小为（size + 256）。
+     * 扩容至少翻倍，见 {@link BufferArena#grow(int, int)}。
      *
      * @param size buffer要新加入的数据大小
      */
     private void check(int size) {
+        if (byteBuffer == null) { // flush之后继续写入
+            byteBuffer = acquireBuffer();
+        }
+        if (preamble != 0) { // 第一次写入之前写版本头
+            int version = preamble;
+            preamble = 0;
+            check(2 + size);
+            byteBuffer.put(ProtobufConstants.PREAMBLE);
+            byteBuffer.put((byte) version);
+            return;
+        }
         if (byteBuffer.remaining() < size) {
-            int cap = byteBuffer.capacity() + size + 256;
+            SerializationMetrics.getInstance().increment(SerializationMetrics.BUFFER_GROWTH);
+            if (channelBuffer != null) {
+                // 只有 writerIndex 之前的数据会被拷贝到新的空间，还没有回填的帧头也在里面，下标不变
+                int position = byteBuffer.position();
+                channelBuffer.writerIndex(position);
+                channelBuffer.ensureWritableBytes(size);
+                byteBuffer = wrap(channelBuffer);
+                return;
+            }
+            int cap = BufferArena.grow(byteBuffer.capacity(), byteBuffer.position() + size);
             ByteBuffer buffer = ByteBuffer.allocate(cap);
             byteBuffer.flip();
             buffer.put(byteBuffer);
             byteBuffer = buffer;
         }
     }
+
+    /**
+     * 直接写入时取得 ChannelBuffer 的视图，从 writerIndex 开始写；否则从 {@link BufferArena} 中取一个
+     */
+    private ByteBuffer acquireBuffer() {
+        if (channelBuffer != null) {
+            return wrap(channelBuffer);
+        }
+        return BufferArena.current().acquireByteBuffer();
+    }
+
+    /**
+     * ChannelBuffer 的整个数组的视图，position 是 writerIndex。ChannelBuffer 扩容后数组会换掉，需要重新取得。
+     */
+    private static ByteBuffer wrap(ChannelBuffer buffer) {
+        ByteBuffer view = ByteBuffer.wrap(buffer.array(), buffer.arrayOffset(), buffer.capacity()).slice();
+        view.position(buffer.writerIndex());
+        return view;
+    }
+
+    /**
+     * protostuff 写满一段 LinkedBuffer 就通过它刷到 ByteBuffer 中，空间不够时由 check 扩容。
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            check(1);
+            byteBuffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            check(len);
+            byteBuffer.put(b, off, len);
+        }
+    }
 }
@@ -0,0 +1,166 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.vteba.utils.reflection.ReflectUtils;
+import io.protostuff.MessageCollectionSchema;
+import io.protostuff.Schema;
+import io.protostuff.StringMapSchema;
+import io.protostuff.runtime.RuntimeSchema;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Schema 缓存。集合和Map的 Schema 按元素类型缓存；读取时按方法签名上声明的泛型类型缓存，泛型只解析一次。
+ * <p>
+ * 有 {@link ProtobufMessage} 的类优先使用编译时生成的 Schema，找不到（比如有不支持的字段没有生成）时使用 RuntimeSchema。
+ * protobuf-java 生成的消息不使用 Schema，按类缓存它自己的 Parser。
+ *
+ * @author yinlei
+ * @since 2026/10/17 12:10
+ */
+final class ProtobufSchemas {
+
+    /** 类 -> 对象的 Schema，生成的或者 RuntimeSchema */
+    private static final ConcurrentMap<Class<?>, Schema<?>> SCHEMAS = new ConcurrentHashMap<>();
+    /** 元素类型 -> 集合的 Schema，写入时用 */
+    private static final ConcurrentMap<Class<?>, MessageCollectionSchema<?>> COLLECTION_SCHEMAS = new ConcurrentHashMap<>();
+    /** value类型 -> Map的 Schema，写入时用 */
+    private static final ConcurrentMap<Class<?>, StringMapSchema<?>> MAP_SCHEMAS = new ConcurrentHashMap<>();
+    /** 声明的泛型类型 -> 集合的 Schema，读取时用 */
+    private static final ConcurrentMap<Type, MessageCollectionSchema<?>> COLLECTION_TYPE_SCHEMAS = new ConcurrentHashMap<>();
+    /** 声明的泛型类型 -> Map的 Schema，读取时用 */
+    private static final ConcurrentMap<Type, StringMapSchema<?>> MAP_TYPE_SCHEMAS = new ConcurrentHashMap<>();
+    /** protobuf-java 的消息类 -> Parser，读取时用 */
+    private static final ConcurrentMap<Class<?>, Parser<?>> PARSERS = new ConcurrentHashMap<>();
+
+    private ProtobufSchemas() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> Schema<T> getSchema(Class<T> cls) {
+        Schema<?> schema = SCHEMAS.get(cls);
+        if (schema == null) {
+            schema = generatedSchema(cls);
+            if (schema == null) {
+                schema = RuntimeSchema.getSchema(cls);
+            }
+            Schema<?> old = SCHEMAS.putIfAbsent(cls, schema);
+            if (old != null) {
+                schema = old;
+            }
+        }
+        return (Schema<T>) schema;
+    }
+
+    /**
+     * protobuf-java 生成的消息类的 Parser，通过生成代码中的 getDefaultInstance() 取得，只反射一次
+     *
+     * @param cls 方法签名上声明的具体消息类，不能是 Message 这样的接口
+     */
+    @SuppressWarnings("unchecked")
+    static <T extends MessageLite> Parser<T> parser(Class<?> cls) {
+        Parser<?> parser = PARSERS.get(cls);
+        if (parser == null) {
+            if (!MessageLite.class.isAssignableFrom(cls)) {
+                throw new IllegalArgumentException(cls.getName() + " is not a protobuf message class.");
+            }
+            try {
+                MessageLite instance = (MessageLite) cls.getMethod("getDefaultInstance").invoke(null);
+                parser = instance.getParserForType();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Can't get the parser of " + cls.getName() + ".", e);
+            }
+            Parser<?> old = PARSERS.putIfAbsent(cls, parser);
+            if (old != null) {
+                parser = old;
+            }
+        }
+        return (Parser<T>) parser;
+    }
+
+    /**
+     * 编译时生成的 Schema：同一个包中的 类名 + {@link ProtobufMessage#SCHEMA_SUFFIX}，单例在 INSTANCE 字段中
+     */
+    private static Schema<?> generatedSchema(Class<?> cls) {
+        if (!cls.isAnnotationPresent(ProtobufMessage.class)) {
+            return null;
+        }
+        try {
+            Class<?> schemaClass = Class.forName(cls.getName() + ProtobufMessage.SCHEMA_SUFFIX, true,
+                    cls.getClassLoader());
+            return (Schema<?>) schemaClass.getField("INSTANCE").get(null);
+        } catch (ReflectiveOperationException e) { // 编译时没有生成
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    static MessageCollectionSchema<Object> collectionSchema(Class<?> elementClass) {
+        // JDK8的computeIfAbsent在key存在时也会加锁，先get
+        MessageCollectionSchema<?> schema = COLLECTION_SCHEMAS.get(elementClass);
+        if (schema == null) {
+            schema = new MessageCollectionSchema<>(getSchema(elementClass));
+            MessageCollectionSchema<?> old = COLLECTION_SCHEMAS.putIfAbsent(elementClass, schema);
+            if (old != null) {
+                schema = old;
+            }
+        }
+        return (MessageCollectionSchema<Object>) schema;
+    }
+
+    @SuppressWarnings("unchecked")
+    static StringMapSchema<Object> mapSchema(Class<?> valueClass) {
+        StringMapSchema<?> schema = MAP_SCHEMAS.get(valueClass);
+        if (schema == null) {
+            schema = new StringMapSchema<>(getSchema(valueClass));
+            StringMapSchema<?> old = MAP_SCHEMAS.putIfAbsent(valueClass, schema);
+            if (old != null) {
+                schema = old;
+            }
+        }
+        return (StringMapSchema<Object>) schema;
+    }
+
+    /**
+     * 根据声明的类型（比如 List&lt;User&gt;）取得集合的 Schema，元素类型是第一个泛型参数。
+     */
+    @SuppressWarnings("unchecked")
+    static MessageCollectionSchema<Object> collectionSchema(Type type) {
+        MessageCollectionSchema<?> schema = COLLECTION_TYPE_SCHEMAS.get(type);
+        if (schema == null) {
+            Class<?> elementClass = ReflectUtils.getGenericClass(type);
+            schema = collectionSchema(elementClass);
+            MessageCollectionSchema<?> old = COLLECTION_TYPE_SCHEMAS.putIfAbsent(type, schema);
+            if (old != null) {
+                schema = old;
+            }
+        }
+        return (MessageCollectionSchema<Object>) schema;
+    }
+
+    /**
+     * 根据声明的类型（比如 Map&lt;String, User&gt;）取得Map的 Schema，value类型是第二个泛型参数。
+     * 没有泛型信息时（比如 readObject(Map.class)）当作 String 处理。
+     */
+    @SuppressWarnings("unchecked")
+    static StringMapSchema<Object> mapSchema(Type type) {
+        StringMapSchema<?> schema = MAP_TYPE_SCHEMAS.get(type);
+        if (schema == null) {
+            Class<?> valueClass;
+            if (type instanceof Class) { // 没有泛型信息
+                valueClass = String.class;
+            } else {
+                valueClass = ReflectUtils.getGenericClass(type, 1);
+            }
+            schema = mapSchema(valueClass);
+            StringMapSchema<?> old = MAP_TYPE_SCHEMAS.putIfAbsent(type, schema);
+            if (old != null) {
+                schema = old;
+            }
+        }
+        return (StringMapSchema<Object>) schema;
+    }
+}
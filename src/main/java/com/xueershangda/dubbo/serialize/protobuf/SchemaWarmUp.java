@@ -0,0 +1,239 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.google.protobuf.MessageLite;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Schema 预热。遍历服务接口所有方法的参数和返回值（包括 List&lt;T&gt;、Map&lt;String, V&gt; 这样的泛型和 POJO 的字段），
+ * 按 {@link ProtobufObjectInput} 和 {@link ProtobufObjectOutput} 实际使用的方式提前创建并缓存 Schema，
+ * 第一次调用时不再在请求里解析类和泛型。
+ * <p>
+ * 可以直接调用 {@link #warmUp(Class[])}，也可以在 URL 上配置 {@link ProtobufConstants#WARMUP_KEY}，
+ * 由 {@link WarmUpProtocol} 在服务暴露（打开端口）和引用之前调用。
+ *
+ * @author yinlei
+ * @since 2026/10/17 20:50
+ */
+public final class SchemaWarmUp {
+
+    private static final Logger LOGGER = LogManager.getLogger(SchemaWarmUp.class);
+
+    private SchemaWarmUp() {
+    }
+
+    public static Report warmUp(Class<?>... interfaces) {
+        return warmUp(Arrays.asList(interfaces));
+    }
+
+    /**
+     * 预热这些接口用到的所有 Schema，出错的类型记录在结果中，不抛出异常
+     */
+    public static Report warmUp(Collection<Class<?>> interfaces) {
+        long begin = System.nanoTime();
+        Context context = new Context();
+        for (Class<?> service : interfaces) {
+            for (Method method : service.getMethods()) {
+                if (method.getDeclaringClass() == Object.class) {
+                    continue;
+                }
+                context.methods++;
+                // 提供者按参数的 Class 读取，消费者按元素的类型写入
+                Class<?>[] parameterTypes = method.getParameterTypes();
+                Type[] genericTypes = method.getGenericParameterTypes();
+                for (int i = 0; i < parameterTypes.length; i++) {
+                    warmUp(context, parameterTypes[i], i < genericTypes.length ? genericTypes[i] : parameterTypes[i]);
+                }
+                // 消费者按方法签名上声明的泛型读取
+                warmUp(context, method.getReturnType(), method.getGenericReturnType());
+            }
+        }
+        Report report = new Report(interfaces.size(), context.methods, context.visited.size(), context.failures,
+                (System.nanoTime() - begin) / 1000000);
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Protobuf schema warm-up finished, {}.", report);
+        }
+        return report;
+    }
+
+    /**
+     * @param readType 读取时传给 ProtobufSchemas 的类型，没有泛型信息的集合读取时才能确定元素类型，不预热
+     * @param declared 声明的类型，用来找元素的类型
+     */
+    private static void warmUp(Context context, Type readType, Type declared) {
+        Class<?> raw = rawClass(declared);
+        if (raw == null) {
+            return;
+        }
+        try {
+            if (Collection.class.isAssignableFrom(raw)) {
+                if (readType instanceof ParameterizedType && context.visited.add(readType)) {
+                    ProtobufSchemas.collectionSchema(readType);
+                }
+                warmUpArgument(context, declared, 0);
+            } else if (Map.class.isAssignableFrom(raw)) {
+                if (readType instanceof ParameterizedType && context.visited.add(readType)) {
+                    ProtobufSchemas.mapSchema(readType);
+                }
+                warmUpArgument(context, declared, 1);
+            } else {
+                warmUpMessage(context, declared);
+            }
+        } catch (RuntimeException e) {
+            context.failures.add(declared.getTypeName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 集合的元素、Map的value，写入时按它们的 Class 取 Schema
+     */
+    private static void warmUpArgument(Context context, Type declared, int index) {
+        if (!(declared instanceof ParameterizedType)) {
+            return;
+        }
+        Type[] arguments = ((ParameterizedType) declared).getActualTypeArguments();
+        if (index >= arguments.length || !(arguments[index] instanceof Class)) {
+            return;
+        }
+        Class<?> element = (Class<?>) arguments[index];
+        if (context.visited.add(Arrays.asList(element, index))) {
+            if (index == 0) {
+                ProtobufSchemas.collectionSchema(element);
+            } else {
+                ProtobufSchemas.mapSchema(element);
+            }
+        }
+        warmUpMessage(context, element);
+    }
+
+    /**
+     * POJO 的 Schema，以及它的字段中用到的 POJO（字段的 Schema 在 protostuff 中第一次用到时才创建）
+     */
+    private static void warmUpMessage(Context context, Type type) {
+        if (type instanceof GenericArrayType) {
+            warmUpMessage(context, ((GenericArrayType) type).getGenericComponentType());
+            return;
+        }
+        if (type instanceof ParameterizedType) {
+            for (Type argument : ((ParameterizedType) type).getActualTypeArguments()) {
+                warmUpMessage(context, argument);
+            }
+            type = ((ParameterizedType) type).getRawType();
+        }
+        if (!(type instanceof Class)) {
+            return;
+        }
+        Class<?> cls = (Class<?>) type;
+        if (cls.isArray()) {
+            warmUpMessage(context, cls.getComponentType());
+            return;
+        }
+        if (MessageLite.class.isAssignableFrom(cls)) { // protobuf-java 的消息只需要 Parser
+            if (!cls.isInterface() && !Modifier.isAbstract(cls.getModifiers()) && context.visited.add(cls)) {
+                ProtobufSchemas.parser(cls);
+            }
+            return;
+        }
+        if (!isMessage(cls) || !context.visited.add(cls)) {
+            return;
+        }
+        ProtobufSchemas.getSchema(cls);
+        for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                    warmUpMessage(context, field.getGenericType());
+                }
+            }
+        }
+    }
+
+    /**
+     * 按 POJO 处理的类型：基本类型、JDK 的类型、接口、抽象类、枚举和异常都不是
+     */
+    private static boolean isMessage(Class<?> cls) {
+        if (cls.isPrimitive() || cls.isInterface() || cls.isEnum() || Modifier.isAbstract(cls.getModifiers())
+                || Throwable.class.isAssignableFrom(cls)) {
+            return false;
+        }
+        String name = cls.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+
+    private static Class<?> rawClass(Type type) {
+        if (type instanceof Class) {
+            return (Class<?>) type;
+        }
+        if (type instanceof ParameterizedType) {
+            return (Class<?>) ((ParameterizedType) type).getRawType();
+        }
+        return null;
+    }
+
+    private static final class Context {
+        /** 已经处理过的类型，也用来统计覆盖了多少 Schema */
+        private final Set<Object> visited = new HashSet<>();
+        private final List<String> failures = new ArrayList<>();
+        private int methods;
+    }
+
+    /**
+     * 预热的结果：接口和方法的个数，创建了多少个 Schema，失败的类型和耗时
+     */
+    public static final class Report {
+        private final int interfaces;
+        private final int methods;
+        private final int schemas;
+        private final List<String> failures;
+        private final long elapsedMillis;
+
+        Report(int interfaces, int methods, int schemas, List<String> failures, long elapsedMillis) {
+            this.interfaces = interfaces;
+            this.methods = methods;
+            this.schemas = schemas;
+            this.failures = Collections.unmodifiableList(failures);
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public int getInterfaces() {
+            return interfaces;
+        }
+
+        public int getMethods() {
+            return methods;
+        }
+
+        public int getSchemas() {
+            return schemas;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "interfaces=" + interfaces + ", methods=" + methods + ", schemas=" + schemas
+                    + ", failures=" + failures + ", elapsed=" + elapsedMillis + "ms";
+        }
+    }
+}
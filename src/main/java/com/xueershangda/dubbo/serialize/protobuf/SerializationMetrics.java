@@ -0,0 +1,466 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 序列化的统计：按帧类型和对象类型记录次数、字节数和耗时分布，以及缓冲区扩容、未知类型等计数器。
+ * <p>
+ * 次数和字节数用 LongAdder，每次都记录；耗时按 {@link #getSampleRate()} 抽样，只有抽中的调用才读时钟，
+ * 分布按2的幂分桶，开着也不影响线上性能。通过 JMX（{@link #OBJECT_NAME}）或者 {@link #getInstance()} 查看。
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:20
+ */
+public final class SerializationMetrics implements SerializationMetricsMXBean {
+
+    private static final Logger LOGGER = LogManager.getLogger(SerializationMetrics.class);
+
+    public static final String OBJECT_NAME = "com.xueershangda.dubbo:type=ProtobufSerialization,name=Metrics";
+
+    /** 计数器的名字 */
+    static final String BUFFER_GROWTH = "buffer.growth";
+    static final String UNKNOWN_TYPE = "fallback.unknownType";
+    static final String PACKED_LIST_ROLLBACK = "fallback.packedListRollback";
+    static final String STREAM_DECODE = "fallback.streamDecode";
+    static final String INCOMPRESSIBLE = "fallback.incompressible";
+
+    /** 没有抽中，不记录耗时 */
+    static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    /** 对象类型最多统计多少个，超过的算到 OTHER_CLASS 中，防止内存无限增长 */
+    private static final int MAX_CLASSES = 512;
+    private static final String OTHER_CLASS = "<other>";
+
+    private static final SerializationMetrics INSTANCE = new SerializationMetrics();
+
+    static {
+        registerMBean(INSTANCE, OBJECT_NAME);
+    }
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stats> frameTypes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Stats> targetClasses = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+    private volatile int sampleMask = 15;
+
+    private SerializationMetrics() {
+    }
+
+    public static SerializationMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    static void registerMBean(Object bean, String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (JMException | RuntimeException e) {
+            // 多个 ClassLoader 加载时只有第一个能注册上，不影响统计
+            LOGGER.warn("Register MBean error, name=[{}], msg=[{}].", name, e.getMessage());
+        }
+    }
+
+    /**
+     * 开始一次编码或者解码。统计和 {@link FlightRecorder} 各自有开关和采样率，按打开的一方中较高的采样率计时
+     *
+     * @return 抽中时返回当前时间，否则返回 {@link #NOT_SAMPLED}
+     */
+    long begin() {
+        int mask = timedMask();
+        if (mask >= 0 && (ThreadLocalRandom.current().nextInt() & mask) == 0) {
+            return System.nanoTime();
+        }
+        return NOT_SAMPLED;
+    }
+
+    /**
+     * @return 计时的采样掩码，统计和飞行记录都关闭时返回-1
+     */
+    private int timedMask() {
+        FlightRecorder recorder = FlightRecorder.getInstance();
+        if (!recorder.isEnabled()) {
+            return enabled ? sampleMask : -1;
+        }
+        int recorderMask = recorder.getSampleRate() - 1;
+        return enabled ? Math.min(sampleMask, recorderMask) : recorderMask;
+    }
+
+    void recordEncode(byte tag, Class<?> cls, long bytes, long begin) {
+        record(true, tag, cls, bytes, begin);
+    }
+
+    void recordDecode(byte tag, Class<?> cls, long bytes, long begin) {
+        record(false, tag, cls, bytes, begin);
+    }
+
+    private void record(boolean encode, byte tag, Class<?> cls, long bytes, long begin) {
+        long nanos = begin == NOT_SAMPLED ? -1 : System.nanoTime() - begin;
+        if (nanos >= 0) { // 飞行记录不受统计的开关影响
+            int mask = timedMask();
+            if (mask >= 0) {
+                FlightRecorder.getInstance().record(encode, tag, cls, bytes, nanos, mask + 1);
+            }
+        }
+        if (!enabled) {
+            return;
+        }
+        stats(frameTypes, frameType(tag)).record(encode, bytes, nanos);
+        String className = cls == null ? "null" : cls.getName();
+        Stats stats = targetClasses.get(className);
+        if (stats == null) {
+            stats = stats(targetClasses, targetClasses.size() < MAX_CLASSES ? className : OTHER_CLASS);
+        }
+        stats.record(encode, bytes, nanos);
+    }
+
+    void increment(String counter) {
+        if (!enabled) {
+            return;
+        }
+        LongAdder adder = counters.get(counter);
+        if (adder == null) {
+            adder = new LongAdder();
+            LongAdder old = counters.putIfAbsent(counter, adder);
+            if (old != null) {
+                adder = old;
+            }
+        }
+        adder.increment();
+    }
+
+    private static Stats stats(ConcurrentMap<String, Stats> map, String name) {
+        Stats stats = map.get(name);
+        if (stats == null) {
+            stats = new Stats();
+            Stats old = map.putIfAbsent(name, stats);
+            if (old != null) {
+                stats = old;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * 类型字节对应的帧类型名字，紧凑格式和原格式的同一种类型算在一起
+     */
+    static String frameType(byte tag) {
+        if (tag < 0) {
+            switch ((tag >> 4) & 0x07) {
+                case ProtobufConstants.COMPACT_STRING:
+                    return "String";
+                case ProtobufConstants.COMPACT_BYTES:
+                    return "bytes";
+                case ProtobufConstants.COMPACT_INT:
+                    return "int";
+                case ProtobufConstants.COMPACT_LONG:
+                    return "long";
+                default:
+                    tag = (byte) ((tag >> 4) & 0x07);
+            }
+        }
+        switch (tag) {
+            case 0:
+                return "pojo";
+            case 1:
+                return "list";
+            case 2:
+                return "set";
+            case 3:
+                return "map";
+            case 4:
+                return "int";
+            case 5:
+                return "long";
+            case 6:
+                return "double";
+            case 7:
+                return "BigInteger";
+            case 8:
+                return "BigDecimal";
+            case 9:
+                return "byte";
+            case 10:
+                return "float";
+            case 11:
+                return "short";
+            case 12:
+                return "String";
+            case 13:
+                return "boolean";
+            case 14:
+                return "bytes";
+            case 16:
+            case ProtobufConstants.EXCEPTION:
+                return "exception";
+            case ProtobufConstants.INT_ARRAY:
+                return "int[]";
+            case ProtobufConstants.LONG_ARRAY:
+                return "long[]";
+            case ProtobufConstants.DOUBLE_ARRAY:
+                return "double[]";
+            case ProtobufConstants.FLOAT_ARRAY:
+                return "float[]";
+            case ProtobufConstants.SHORT_ARRAY:
+                return "short[]";
+            case ProtobufConstants.INT_LIST:
+                return "List<Integer>";
+            case ProtobufConstants.LONG_LIST:
+                return "List<Long>";
+            case ProtobufConstants.DOUBLE_LIST:
+                return "List<Double>";
+            case ProtobufConstants.COMPRESSED:
+                return "compressed";
+            case ProtobufConstants.CHUNKED:
+                return "chunked";
+            case ProtobufConstants.PROTOBUF:
+                return "protobuf";
+            case ProtobufConstants.STRING_MAP:
+                return "stringMap";
+            default:
+                return "unknown";
+        }
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public List<FrameMetrics> getFrameTypes() {
+        return snapshot(frameTypes);
+    }
+
+    @Override
+    public List<FrameMetrics> getTargetClasses() {
+        return snapshot(targetClasses);
+    }
+
+    private static List<FrameMetrics> snapshot(Map<String, Stats> map) {
+        List<FrameMetrics> result = new ArrayList<>(map.size());
+        for (Map.Entry<String, Stats> entry : map.entrySet()) {
+            result.add(new FrameMetrics(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(result, (a, b) -> a.getName().compareTo(b.getName()));
+        return result;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public int getSampleRate() {
+        return sampleMask + 1;
+    }
+
+    @Override
+    public void setSampleRate(int sampleRate) {
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("Sample rate must be a power of two, sampleRate=" + sampleRate + ".");
+        }
+        this.sampleMask = sampleRate - 1;
+    }
+
+    @Override
+    public void reset() {
+        counters.clear();
+        frameTypes.clear();
+        targetClasses.clear();
+    }
+
+    /**
+     * 一种帧类型或者对象类型的统计
+     */
+    static final class Stats {
+        final LongAdder encodeCount = new LongAdder();
+        final LongAdder encodeBytes = new LongAdder();
+        final LongAdder decodeCount = new LongAdder();
+        final LongAdder decodeBytes = new LongAdder();
+        final Histogram encodeTime = new Histogram();
+        final Histogram decodeTime = new Histogram();
+
+        void record(boolean encode, long bytes, long nanos) {
+            if (encode) {
+                encodeCount.increment();
+                encodeBytes.add(bytes);
+                if (nanos >= 0) {
+                    encodeTime.record(nanos);
+                }
+            } else {
+                decodeCount.increment();
+                decodeBytes.add(bytes);
+                if (nanos >= 0) {
+                    decodeTime.record(nanos);
+                }
+            }
+        }
+    }
+
+    /**
+     * 耗时分布，第i个桶是 [2^(i-1), 2^i) 纳秒。只记录抽中的调用，竞争很小，直接用 AtomicLongArray。
+     */
+    static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            long m = max.get();
+            while (nanos > m && !max.compareAndSet(m, nanos)) {
+                m = max.get();
+            }
+        }
+
+        long count() {
+            long count = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                count += buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * 分位数，返回所在桶的上界（微秒），没有数据时返回0
+         */
+        double percentile(double p) {
+            long count = count();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * p);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min((double) (1L << i), max.get()) / 1000.0;
+                }
+            }
+            return max.get() / 1000.0;
+        }
+
+        double max() {
+            return max.get() / 1000.0;
+        }
+    }
+
+    /**
+     * 统计的快照，耗时的单位是微秒
+     */
+    public static final class FrameMetrics {
+        private final String name;
+        private final long encodeCount;
+        private final long encodeBytes;
+        private final long encodeSamples;
+        private final double encodeP50;
+        private final double encodeP99;
+        private final double encodeMax;
+        private final long decodeCount;
+        private final long decodeBytes;
+        private final long decodeSamples;
+        private final double decodeP50;
+        private final double decodeP99;
+        private final double decodeMax;
+
+        FrameMetrics(String name, Stats stats) {
+            this.name = name;
+            this.encodeCount = stats.encodeCount.sum();
+            this.encodeBytes = stats.encodeBytes.sum();
+            this.encodeSamples = stats.encodeTime.count();
+            this.encodeP50 = stats.encodeTime.percentile(0.5);
+            this.encodeP99 = stats.encodeTime.percentile(0.99);
+            this.encodeMax = stats.encodeTime.max();
+            this.decodeCount = stats.decodeCount.sum();
+            this.decodeBytes = stats.decodeBytes.sum();
+            this.decodeSamples = stats.decodeTime.count();
+            this.decodeP50 = stats.decodeTime.percentile(0.5);
+            this.decodeP99 = stats.decodeTime.percentile(0.99);
+            this.decodeMax = stats.decodeTime.max();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getEncodeCount() {
+            return encodeCount;
+        }
+
+        public long getEncodeBytes() {
+            return encodeBytes;
+        }
+
+        public long getEncodeSamples() {
+            return encodeSamples;
+        }
+
+        public double getEncodeP50Micros() {
+            return encodeP50;
+        }
+
+        public double getEncodeP99Micros() {
+            return encodeP99;
+        }
+
+        public double getEncodeMaxMicros() {
+            return encodeMax;
+        }
+
+        public long getDecodeCount() {
+            return decodeCount;
+        }
+
+        public long getDecodeBytes() {
+            return decodeBytes;
+        }
+
+        public long getDecodeSamples() {
+            return decodeSamples;
+        }
+
+        public double getDecodeP50Micros() {
+            return decodeP50;
+        }
+
+        public double getDecodeP99Micros() {
+            return decodeP99;
+        }
+
+        public double getDecodeMaxMicros() {
+            return decodeMax;
+        }
+
+        @Override
+        public String toString() {
+            return name + "{encodeCount=" + encodeCount + ", encodeBytes=" + encodeBytes
+                    + ", encodeP50=" + encodeP50 + "us, encodeP99=" + encodeP99 + "us"
+                    + ", decodeCount=" + decodeCount + ", decodeBytes=" + decodeBytes
+                    + ", decodeP50=" + decodeP50 + "us, decodeP99=" + decodeP99 + "us}";
+        }
+    }
+}
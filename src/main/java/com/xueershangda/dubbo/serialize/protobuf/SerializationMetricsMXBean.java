@@ -0,0 +1,41 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 序列化统计的 JMX 接口，ObjectName 见 {@link SerializationMetrics#OBJECT_NAME}。
+ *
+ * @author yinlei
+ * @since 2026/10/17 16:20
+ */
+public interface SerializationMetricsMXBean {
+
+    /**
+     * 缓冲区扩容、未知类型等计数器
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * 按帧类型（pojo、list、String等）统计
+     */
+    List<SerializationMetrics.FrameMetrics> getFrameTypes();
+
+    /**
+     * 按序列化的对象类型（读取时是方法签名上的类型）统计
+     */
+    List<SerializationMetrics.FrameMetrics> getTargetClasses();
+
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    /**
+     * 每多少次调用记录一次耗时，2的幂
+     */
+    int getSampleRate();
+
+    void setSampleRate(int sampleRate);
+
+    void reset();
+}
@@ -0,0 +1,492 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import io.protostuff.ByteArrayInput;
+import io.protostuff.ByteString;
+import io.protostuff.Input;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.Output;
+import io.protostuff.ProtobufException;
+import io.protostuff.ProtostuffOutput;
+import io.protostuff.Schema;
+import io.protostuff.WireFormat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 帧内的字符串字典。protostuff 数据中重复出现的字符串（Map的key、枚举一样的取值、类名等）和 byte[]，第一次按原样写入，
+ * 以后只写一个 varint 类型的字段，值是到第一次出现位置的距离（字节）。字段号不变，只是 wire type 从
+ * length-delimited 变成 varint，读取时看 wire type 就知道是不是引用，不需要双方维护相同的状态。
+ * <p>
+ * 只在一帧之内引用，不提供按连接（会话）的字典，不同的消息之间、同一个请求的不同参数之间都不去重：
+ * Dubbo 的序列化接口拿不到连接，同一个连接上的消息也不一定按顺序解码，跨消息的字典两边对不上。
+ * 只对 POJO、List、Set、Map 帧生效，异常帧中的类名和 attachments（见 {@link StringMapCodec}）不经过字典。
+ * 所以只有一帧之内有很多重复字符串（比如较大的 List 结果）时才有效果，参数很少的小消息基本不会变短。
+ * 每帧最多记录 {@link #MAX_ENTRIES} 个字符串，内存是有界的。
+ * <p>
+ * 读取时也用来把对象中的字符串交给 {@link Utf8} 的缓存，这时即使没有引用也经过 {@link Reader}。
+ *
+ * @author yinlei
+ * @since 2026/10/17 17:40
+ */
+final class StringDictionary {
+
+    /** 每一帧最多记录多少个不同的字符串 */
+    static final int MAX_ENTRIES = 4096;
+
+    private StringDictionary() {
+    }
+
+    /**
+     * 和 ProtostuffIOUtil.writeTo 一样，字符串使用字典
+     *
+     * @return 数据的长度
+     */
+    static <T> int writeTo(OutputStream out, T message, Schema<T> schema, LinkedBuffer buffer) throws IOException {
+        Writer writer = new Writer(new ProtostuffOutput(buffer, out));
+        schema.writeTo(writer, message);
+        LinkedBuffer.writeTo(out, buffer);
+        return writer.output.getSize();
+    }
+
+    /**
+     * 和 ProtostuffIOUtil.mergeFrom 一样
+     *
+     * @param references 是否有字符串引用
+     * @param intern 字符串是否经过缓存
+     */
+    static <T> void mergeFrom(byte[] data, int offset, int length, T message, Schema<T> schema, boolean references,
+                              boolean intern) throws IOException {
+        mergeFrom(data, offset, offset, length, message, schema, references, intern);
+    }
+
+    /**
+     * 只解码一帧中的一部分（比如集合的一个元素），引用可以指向 frameStart 之后的任何位置
+     */
+    static <T> void mergeFrom(byte[] data, int frameStart, int offset, int length, T message, Schema<T> schema,
+                              boolean references, boolean intern) throws IOException {
+        Reader reader = new Reader(new ByteArrayInput(data, offset, length, true), data, frameStart, references, intern);
+        schema.mergeFrom(reader, message);
+        reader.input.checkLastTagWas(0);
+    }
+
+    /**
+     * 嵌套的对象也要经过字典，protostuff 写入和读取嵌套对象时传入的是它自己，所以包装一下 Schema
+     */
+    private static final class DictionarySchema<T> implements Schema<T> {
+        private final Schema<T> schema;
+        private final Writer writer;
+        private final Reader reader;
+
+        DictionarySchema(Schema<T> schema, Writer writer, Reader reader) {
+            this.schema = schema;
+            this.writer = writer;
+            this.reader = reader;
+        }
+
+        @Override
+        public String getFieldName(int number) {
+            return schema.getFieldName(number);
+        }
+
+        @Override
+        public int getFieldNumber(String name) {
+            return schema.getFieldNumber(name);
+        }
+
+        @Override
+        public boolean isInitialized(T message) {
+            return schema.isInitialized(message);
+        }
+
+        @Override
+        public T newMessage() {
+            return schema.newMessage();
+        }
+
+        @Override
+        public String messageName() {
+            return schema.messageName();
+        }
+
+        @Override
+        public String messageFullName() {
+            return schema.messageFullName();
+        }
+
+        @Override
+        public Class<? super T> typeClass() {
+            return schema.typeClass();
+        }
+
+        @Override
+        public void mergeFrom(Input input, T message) throws IOException {
+            schema.mergeFrom(reader, message);
+        }
+
+        @Override
+        public void writeTo(Output output, T message) throws IOException {
+            schema.writeTo(writer, message);
+        }
+    }
+
+    static final class Writer implements Output {
+        private final ProtostuffOutput output;
+        /** 字符串、byte[]（按内容比较的 ByteBuffer）、ByteString -> 第一次出现时长度字段的位置 */
+        private final Map<Object, Integer> positions = new HashMap<>();
+
+        Writer(ProtostuffOutput output) {
+            this.output = output;
+        }
+
+        @Override
+        public void writeString(int fieldNumber, CharSequence value, boolean repeated) throws IOException {
+            String s = value.toString();
+            // 字符数不会超过UTF-8的字节数
+            if (writeReference(fieldNumber, s, s.length(), repeated)) {
+                return;
+            }
+            int start = start(fieldNumber);
+            output.writeString(fieldNumber, s, repeated);
+            remember(s, start);
+        }
+
+        /**
+         * 前面写过相同的内容，并且引用比长度加内容短时写入引用
+         *
+         * @param length 内容的长度（不超过实际写入的字节数）
+         */
+        private boolean writeReference(int fieldNumber, Object key, int length, boolean repeated) throws IOException {
+            Integer position = positions.get(key);
+            if (position == null) {
+                return false;
+            }
+            int distance = output.getSize() + Varints.varIntSize(WireFormat.makeTag(fieldNumber,
+                    WireFormat.WIRETYPE_VARINT)) - position;
+            if (Varints.varIntSize(distance) < length + 1) {
+                output.writeUInt32(fieldNumber, distance, repeated);
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 接下来写入的 length-delimited 字段的长度字段的位置
+         */
+        private int start(int fieldNumber) {
+            return output.getSize() + Varints.varIntSize(WireFormat.makeTag(fieldNumber,
+                    WireFormat.WIRETYPE_LENGTH_DELIMITED));
+        }
+
+        private void remember(Object key, int start) {
+            if (positions.size() < MAX_ENTRIES && !positions.containsKey(key)) {
+                positions.put(key, start);
+            }
+        }
+
+        @Override
+        public <T> void writeObject(int fieldNumber, T value, Schema<T> schema, boolean repeated) throws IOException {
+            output.writeObject(fieldNumber, value, new DictionarySchema<>(schema, this, null), repeated);
+        }
+
+        @Override
+        public void writeInt32(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeInt32(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeUInt32(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeUInt32(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeSInt32(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeSInt32(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeFixed32(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeFixed32(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeSFixed32(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeSFixed32(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeInt64(int fieldNumber, long value, boolean repeated) throws IOException {
+            output.writeInt64(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeUInt64(int fieldNumber, long value, boolean repeated) throws IOException {
+            output.writeUInt64(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeSInt64(int fieldNumber, long value, boolean repeated) throws IOException {
+            output.writeSInt64(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeFixed64(int fieldNumber, long value, boolean repeated) throws IOException {
+            output.writeFixed64(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeSFixed64(int fieldNumber, long value, boolean repeated) throws IOException {
+            output.writeSFixed64(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeFloat(int fieldNumber, float value, boolean repeated) throws IOException {
+            output.writeFloat(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeDouble(int fieldNumber, double value, boolean repeated) throws IOException {
+            output.writeDouble(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeBool(int fieldNumber, boolean value, boolean repeated) throws IOException {
+            output.writeBool(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeEnum(int fieldNumber, int value, boolean repeated) throws IOException {
+            output.writeEnum(fieldNumber, value, repeated);
+        }
+
+        @Override
+        public void writeBytes(int fieldNumber, ByteString value, boolean repeated) throws IOException {
+            if (writeReference(fieldNumber, value, value.size(), repeated)) {
+                return;
+            }
+            int start = start(fieldNumber);
+            output.writeBytes(fieldNumber, value, repeated);
+            remember(value, start);
+        }
+
+        @Override
+        public void writeByteArray(int fieldNumber, byte[] value, boolean repeated) throws IOException {
+            ByteBuffer key = ByteBuffer.wrap(value); // 按内容比较
+            if (writeReference(fieldNumber, key, value.length, repeated)) {
+                return;
+            }
+            int start = start(fieldNumber);
+            output.writeByteArray(fieldNumber, value, repeated);
+            remember(key, start);
+        }
+
+        @Override
+        public void writeByteRange(boolean utf8String, int fieldNumber, byte[] value, int offset, int length,
+                                   boolean repeated) throws IOException {
+            output.writeByteRange(utf8String, fieldNumber, value, offset, length, repeated);
+        }
+
+        @Override
+        public void writeBytes(int fieldNumber, ByteBuffer value, boolean repeated) throws IOException {
+            output.writeBytes(fieldNumber, value, repeated);
+        }
+    }
+
+    static final class Reader implements Input {
+        private final ByteArrayInput input;
+        private final byte[] data;
+        private final int start;
+        private final boolean references;
+        private final boolean intern;
+
+        Reader(ByteArrayInput input, byte[] data, int start, boolean references, boolean intern) {
+            this.input = input;
+            this.data = data;
+            this.start = start;
+            this.references = references;
+            this.intern = intern;
+        }
+
+        /**
+         * 当前字段的 wire type 是 varint，说明是一个引用
+         */
+        private boolean isReference() {
+            return references && WireFormat.getTagWireType(input.getLastTag()) == WireFormat.WIRETYPE_VARINT;
+        }
+
+        /**
+         * 读取引用，返回被引用的字符串在数组中的 [位置, 长度]
+         */
+        private int[] reference() throws IOException {
+            int position = input.currentOffset();
+            int distance = input.readUInt32();
+            int offset = position - distance;
+            if (distance <= 0 || offset < start) {
+                throw new ProtobufException("Illegal string reference, distance=" + distance + ".");
+            }
+            // 长度字段是 varint
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                if (offset >= position || shift > 28) {
+                    throw new ProtobufException("Illegal string reference, distance=" + distance + ".");
+                }
+                byte b = data[offset++];
+                length |= (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            if (length < 0 || length > position - offset) {
+                throw new ProtobufException("Illegal string reference, length=" + length + ".");
+            }
+            return new int[]{offset, length};
+        }
+
+        @Override
+        public String readString() throws IOException {
+            if (isReference()) {
+                int[] range = reference();
+                return Utf8.decode(data, range[0], range[1], intern);
+            }
+            if (!intern) {
+                return input.readString();
+            }
+            int length = input.readRawVarint32();
+            int offset = input.currentOffset();
+            if (length < 0 || length > input.currentLimit() - offset) {
+                throw new ProtobufException("Illegal string length=" + length + ".");
+            }
+            input.setBounds(offset + length, input.currentLimit());
+            return Utf8.decode(data, offset, length, true);
+        }
+
+        @Override
+        public byte[] readByteArray() throws IOException {
+            if (isReference()) {
+                int[] range = reference();
+                return Arrays.copyOfRange(data, range[0], range[0] + range[1]);
+            }
+            return input.readByteArray();
+        }
+
+        @Override
+        public ByteString readBytes() throws IOException {
+            if (isReference()) {
+                return ByteString.copyFrom(readByteArray());
+            }
+            return input.readBytes();
+        }
+
+        @Override
+        public void readBytes(ByteBuffer bb) throws IOException {
+            if (isReference()) {
+                bb.put(readByteArray());
+                return;
+            }
+            input.readBytes(bb);
+        }
+
+        @Override
+        public ByteBuffer readByteBuffer() throws IOException {
+            if (isReference()) {
+                return ByteBuffer.wrap(readByteArray());
+            }
+            return input.readByteBuffer();
+        }
+
+        @Override
+        public <T> T mergeObject(T value, Schema<T> schema) throws IOException {
+            return input.mergeObject(value, new DictionarySchema<>(schema, null, this));
+        }
+
+        @Override
+        public <T> void handleUnknownField(int fieldNumber, Schema<T> schema) throws IOException {
+            input.handleUnknownField(fieldNumber, schema);
+        }
+
+        @Override
+        public <T> int readFieldNumber(Schema<T> schema) throws IOException {
+            return input.readFieldNumber(schema);
+        }
+
+        @Override
+        public int readInt32() throws IOException {
+            return input.readInt32();
+        }
+
+        @Override
+        public int readUInt32() throws IOException {
+            return input.readUInt32();
+        }
+
+        @Override
+        public int readSInt32() throws IOException {
+            return input.readSInt32();
+        }
+
+        @Override
+        public int readFixed32() throws IOException {
+            return input.readFixed32();
+        }
+
+        @Override
+        public int readSFixed32() throws IOException {
+            return input.readSFixed32();
+        }
+
+        @Override
+        public long readInt64() throws IOException {
+            return input.readInt64();
+        }
+
+        @Override
+        public long readUInt64() throws IOException {
+            return input.readUInt64();
+        }
+
+        @Override
+        public long readSInt64() throws IOException {
+            return input.readSInt64();
+        }
+
+        @Override
+        public long readFixed64() throws IOException {
+            return input.readFixed64();
+        }
+
+        @Override
+        public long readSFixed64() throws IOException {
+            return input.readSFixed64();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return input.readFloat();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return input.readDouble();
+        }
+
+        @Override
+        public boolean readBool() throws IOException {
+            return input.readBool();
+        }
+
+        @Override
+        public int readEnum() throws IOException {
+            return input.readEnum();
+        }
+
+        @Override
+        public void transferByteRangeTo(Output output, boolean utf8String, int fieldNumber, boolean repeated)
+                throws IOException {
+            input.transferByteRangeTo(output, utf8String, fieldNumber, repeated);
+        }
+    }
+}
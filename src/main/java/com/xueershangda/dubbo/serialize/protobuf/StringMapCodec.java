@@ -0,0 +1,114 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 字符串 Map 帧（{@link ProtobufConstants#STRING_MAP}）中 key 和 value 的编码。Dubbo 每次调用都会写入 attachments，
+ * 其中的 key（path、interface、version、timeout、group 等）和常见的值在静态表中，只占1个字节；
+ * path、interface、version 的值和方法名、参数描述这些 writeUTF 写过的字符串相同，引用前面的第几个字符串。
+ * <p>
+ * 每个字符串是一个 varint 的编号：
+ * <ul>
+ * <li>{@link #NULL}：null</li>
+ * <li>{@link #LITERAL}：后面是 varint 的长度和 UTF-8 编码的字符串</li>
+ * <li>{@link #STATIC_BASE} 到 {@link #REF_BASE} 之前：静态表中的字符串</li>
+ * <li>{@link #REF_BASE} 开始：同一个流中前面用 writeUTF 写入（readUTF 读取）的第几个字符串，最多 {@link #MAX_REFS} 个</li>
+ * </ul>
+ * 静态表是格式的一部分，只能在末尾追加，不能修改和删除已有的字符串。
+ *
+ * @author yinlei
+ * @since 2026/10/17 23:20
+ */
+final class StringMapCodec {
+
+    static final int NULL = 0;
+    static final int LITERAL = 1;
+    static final int STATIC_BASE = 2;
+    static final int REF_BASE = 64;
+
+    /** 记录的 writeUTF 字符串的个数，Dubbo 的请求前面有5个 */
+    static final int MAX_REFS = 8;
+
+    private static final String[] STATIC = {
+            // Dubbo 的 attachments 和 URL 参数
+            "path", "interface", "version", "group", "timeout", "token", "dubbo", "async", "generic",
+            "application", "side", "retries", "loadbalance", "cluster", "accesslog", "weight", "category",
+            "revision", "pid", "timestamp", "methods", "anyhost", "default.timeout", "input", "output",
+            // 常见的值
+            "", "true", "false", "consumer", "provider", "0", "1", "1000", "3000", "5000",
+            "0.0.0", "1.0.0", "2.0.0", "2.0.1", "2.0.2", "default", "random", "roundrobin", "leastactive",
+            "failover", "failfast", "failsafe",
+            // 参数描述
+            "Ljava/lang/String;", "Ljava/lang/Object;", "Ljava/lang/Integer;", "Ljava/lang/Long;",
+            "Ljava/util/List;", "Ljava/util/Map;", "I", "J", "Z"
+    };
+
+    private static final Map<String, Integer> STATIC_INDEX = new HashMap<>();
+
+    static {
+        if (STATIC.length > REF_BASE - STATIC_BASE) {
+            throw new IllegalStateException("Too many static strings: " + STATIC.length + ".");
+        }
+        for (int i = 0; i < STATIC.length; i++) {
+            if (STATIC_INDEX.put(STATIC[i], STATIC_BASE + i) != null) {
+                throw new IllegalStateException("Duplicate static string: " + STATIC[i] + ".");
+            }
+        }
+    }
+
+    private StringMapCodec() {
+    }
+
+    /**
+     * @return 静态表中的编号，不在表中返回-1
+     */
+    static int staticToken(String s) {
+        Integer token = STATIC_INDEX.get(s);
+        return token == null ? -1 : token;
+    }
+
+    /**
+     * @return 引用前面第几个 writeUTF 字符串的编号，没有相同的返回-1
+     */
+    static int refToken(String s, String[] refs, int refCount) {
+        for (int i = 0; i < refCount; i++) {
+            if (s.equals(refs[i])) {
+                return REF_BASE + i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 读取一个字符串，不能超过帧的结束位置 end
+     *
+     * @param refs 前面 readUTF 读取的字符串，refCount 为0时可以为null
+     */
+    static String read(ByteBuffer buffer, int end, String[] refs, int refCount, boolean intern) throws IOException {
+        int token = Varints.getVarInt(buffer);
+        if (token == NULL) {
+            return null;
+        }
+        if (token == LITERAL) {
+            int len = Varints.getVarInt(buffer);
+            int position = buffer.position();
+            if (len < 0 || len > end - position) {
+                throw new IOException("Illegal string map frame, string length=" + len + ".");
+            }
+            String s = Utf8.decode(buffer.array(), buffer.arrayOffset() + position, len, intern);
+            buffer.position(position + len);
+            return s;
+        }
+        if (token >= STATIC_BASE && token < STATIC_BASE + STATIC.length) {
+            return STATIC[token - STATIC_BASE];
+        }
+        int index = token - REF_BASE;
+        if (index < 0 || index >= refCount) {
+            throw new IOException("Illegal string map frame, token=" + token + ", refs=" + refCount + ".");
+        }
+        return refs[index];
+    }
+}
@@ -0,0 +1,211 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * UTF-8 编解码。写入时直接编码到 ByteBuffer 的底层数组，读取时直接从数组解码，不再经过临时的 byte[]，
+ * 也不用按名字查找字符集。纯 ASCII 的字符串走单独的快速循环。
+ * <p>
+ * 和 JDK 的结果完全一致：单独出现的代理字符编码成 '?'，读取时遇到非法的字节序列交给 JDK 处理（替换成 U+FFFD）。
+ * <p>
+ * 读取时可以使用一个有界的缓存（见 {@link ProtobufConstants#INTERN_KEY}），较短的字符串（状态码、地区名、方法名等）
+ * 命中时直接返回已有的实例，消费者持有大量结果时能少占一些堆。缓存按哈希直接映射，冲突时覆盖，不加锁。
+ *
+ * @author yinlei
+ * @since 2026/10/17 18:30
+ */
+final class Utf8 {
+
+    /** 不超过这个长度（字节）的字符串才放入缓存 */
+    static final int MAX_INTERN_LENGTH = 32;
+
+    /** 缓存的槽数，2的幂 */
+    static final int INTERN_SLOTS = 4096;
+
+    private static final Entry[] CACHE = new Entry[INTERN_SLOTS];
+
+    private Utf8() {
+    }
+
+    /**
+     * 编码后的字节数
+     */
+    static int encodedLength(String s) {
+        int n = s.length();
+        int i = 0;
+        while (i < n && s.charAt(i) < 0x80) {
+            i++;
+        }
+        int length = i;
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++; // '?'
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 把字符串编码到 buffer 的当前位置，调用前需要确保有 {@link #encodedLength(String)} 个字节的空间
+     */
+    static void encode(String s, ByteBuffer buffer) {
+        if (!buffer.hasArray()) {
+            buffer.put(s.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        byte[] dst = buffer.array();
+        int start = buffer.arrayOffset() + buffer.position();
+        int pos = start;
+        int n = s.length();
+        int i = 0;
+        for (char c; i < n && (c = s.charAt(i)) < 0x80; i++) {
+            dst[pos++] = (byte) c;
+        }
+        for (; i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | c >> 6);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                dst[pos++] = (byte) (0xF0 | cp >> 18);
+                dst[pos++] = (byte) (0x80 | cp >> 12 & 0x3F);
+                dst[pos++] = (byte) (0x80 | cp >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | cp & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = '?';
+            } else {
+                dst[pos++] = (byte) (0xE0 | c >> 12);
+                dst[pos++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[pos++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        buffer.position(buffer.position() + pos - start);
+    }
+
+    /**
+     * 解码，intern 为true时较短的字符串经过缓存
+     */
+    static String decode(byte[] data, int offset, int length, boolean intern) {
+        if (intern && length <= MAX_INTERN_LENGTH) {
+            return intern(data, offset, length);
+        }
+        return decode(data, offset, length);
+    }
+
+    @SuppressWarnings("deprecation")
+    static String decode(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int i = offset;
+        while (i < end && data[i] >= 0) {
+            i++;
+        }
+        if (i == end) {
+            // 纯ASCII，高位补0，不经过字符集
+            return new String(data, 0, offset, length);
+        }
+        char[] chars = new char[length];
+        int n = 0;
+        for (int j = offset; j < i; j++) {
+            chars[n++] = (char) data[j];
+        }
+        while (i < end) {
+            int b = data[i++];
+            if (b >= 0) {
+                chars[n++] = (char) b;
+            } else if ((b >> 5) == -2 && (b & 0x1E) != 0 && i < end) { // 110xxxxx，排除超长编码
+                int b2 = data[i++];
+                if ((b2 & 0xC0) != 0x80) {
+                    return fallback(data, offset, length);
+                }
+                chars[n++] = (char) ((b & 0x1F) << 6 | b2 & 0x3F);
+            } else if ((b >> 4) == -2 && i + 1 < end) { // 1110xxxx
+                int b2 = data[i++];
+                int b3 = data[i++];
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80) {
+                    return fallback(data, offset, length);
+                }
+                char c = (char) ((b & 0x0F) << 12 | (b2 & 0x3F) << 6 | b3 & 0x3F);
+                if (c < 0x800 || Character.isSurrogate(c)) {
+                    return fallback(data, offset, length);
+                }
+                chars[n++] = c;
+            } else if ((b >> 3) == -2 && i + 2 < end) { // 11110xxx
+                int b2 = data[i++];
+                int b3 = data[i++];
+                int b4 = data[i++];
+                if ((b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80 || (b4 & 0xC0) != 0x80) {
+                    return fallback(data, offset, length);
+                }
+                int cp = (b & 0x07) << 18 | (b2 & 0x3F) << 12 | (b3 & 0x3F) << 6 | b4 & 0x3F;
+                if (cp < Character.MIN_SUPPLEMENTARY_CODE_POINT || cp > Character.MAX_CODE_POINT) {
+                    return fallback(data, offset, length);
+                }
+                chars[n++] = Character.highSurrogate(cp);
+                chars[n++] = Character.lowSurrogate(cp);
+            } else {
+                return fallback(data, offset, length);
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    /**
+     * 非法的字节序列，替换规则交给JDK
+     */
+    private static String fallback(byte[] data, int offset, int length) {
+        return new String(data, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private static String intern(byte[] data, int offset, int length) {
+        int hash = length;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            hash = 31 * hash + data[i];
+        }
+        int slot = (hash ^ hash >>> 16) & (INTERN_SLOTS - 1);
+        Entry entry = CACHE[slot];
+        if (entry != null && entry.matches(data, offset, length)) {
+            return entry.value;
+        }
+        String value = decode(data, offset, length);
+        // Entry的字段都是final的，别的线程看到的一定是完整的对象，覆盖也没关系
+        CACHE[slot] = new Entry(data, offset, length, value);
+        return value;
+    }
+
+    private static final class Entry {
+        private final byte[] bytes;
+        private final String value;
+
+        Entry(byte[] data, int offset, int length, String value) {
+            this.bytes = new byte[length];
+            System.arraycopy(data, offset, bytes, 0, length);
+            this.value = value;
+        }
+
+        boolean matches(byte[] data, int offset, int length) {
+            if (bytes.length != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != data[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
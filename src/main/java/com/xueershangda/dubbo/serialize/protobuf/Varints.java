@@ -0,0 +1,102 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * varint 和 zigzag 编码，和 protobuf 的格式一致：每个字节低7位是数据，最高位为1表示后面还有字节。
+ *
+ * @author yinlei
+ * @since 2026/10/17 13:40
+ */
+final class Varints {
+
+    private Varints() {
+    }
+
+    static int encodeZigZag32(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    static int decodeZigZag32(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    static long encodeZigZag64(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    static long decodeZigZag64(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * value按无符号处理，编码后占用的字节数
+     */
+    static int varIntSize(int value) {
+        if ((value & (~0 << 7)) == 0) {
+            return 1;
+        }
+        if ((value & (~0 << 14)) == 0) {
+            return 2;
+        }
+        if ((value & (~0 << 21)) == 0) {
+            return 3;
+        }
+        if ((value & (~0 << 28)) == 0) {
+            return 4;
+        }
+        return 5;
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * 在index处写入固定width个字节的varint，不足的高位用0补齐。用于长度回填，解码和普通varint一样。
+     */
+    static void putVarInt(ByteBuffer buffer, int index, int value, int width) {
+        for (int i = 0; i < width - 1; i++) {
+            buffer.put(index + i, (byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put(index + width - 1, (byte) value);
+    }
+
+    static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint32.");
+    }
+
+    static long getVarLong(ByteBuffer buffer) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint64.");
+    }
+}
@@ -0,0 +1,63 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.rpc.Exporter;
+import com.alibaba.dubbo.rpc.Invoker;
+import com.alibaba.dubbo.rpc.Protocol;
+import com.alibaba.dubbo.rpc.RpcException;
+
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Protocol 的包装类，URL 上配置了 {@link ProtobufConstants#WARMUP_KEY} 时，在服务暴露和引用之前
+ * 用 {@link SchemaWarmUp} 预热服务接口用到的 Schema。暴露时端口在 export 中才打开，所以预热完成之前不会有请求进来。
+ * <p>
+ * 在 META-INF/dubbo/com.alibaba.dubbo.rpc.Protocol 中注册，Dubbo 按构造函数识别为包装类，会包装所有的协议。
+ * 注册中心协议的 URL 上没有这个参数，只有真正暴露和引用的时候预热；每个接口只预热一次（引用时每个提供者都会调用 refer）。
+ *
+ * @author yinlei
+ * @since 2026/10/17 20:50
+ */
+public class WarmUpProtocol implements Protocol {
+
+    /** 已经预热过的接口 */
+    private static final ConcurrentMap<Class<?>, Boolean> WARMED = new ConcurrentHashMap<>();
+
+    private final Protocol protocol;
+
+    public WarmUpProtocol(Protocol protocol) {
+        this.protocol = protocol;
+    }
+
+    @Override
+    public int getDefaultPort() {
+        return protocol.getDefaultPort();
+    }
+
+    @Override
+    public <T> Exporter<T> export(Invoker<T> invoker) throws RpcException {
+        warmUp(invoker.getInterface(), invoker.getUrl());
+        return protocol.export(invoker);
+    }
+
+    @Override
+    public <T> Invoker<T> refer(Class<T> type, URL url) throws RpcException {
+        warmUp(type, url);
+        return protocol.refer(type, url);
+    }
+
+    @Override
+    public void destroy() {
+        protocol.destroy();
+    }
+
+    private static void warmUp(Class<?> type, URL url) {
+        if (type != null && url != null
+                && url.getParameter(ProtobufConstants.WARMUP_KEY, ProtobufConstants.DEFAULT_WARMUP)
+                && WARMED.putIfAbsent(type, Boolean.TRUE) == null) {
+            SchemaWarmUp.warmUp(Collections.<Class<?>>singletonList(type));
+        }
+    }
+}
@@ -0,0 +1,496 @@
+package com.xueershangda.dubbo.serialize.protobuf.processor;
+
+import com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 为 {@link ProtobufMessage} 标记的类生成 io.protostuff.Schema 的实现，见 {@link ProtobufMessage}。
+ * <p>
+ * 字段的收集和编号规则和 RuntimeSchema 完全一致：父类的字段在前，跳过 static、transient 和 @Exclude，
+ * &#64;Deprecated 的字段占用一个编号，有 @Tag 时使用它的编号。写入的方式也和 RuntimeSchema 一样，
+ * 基本类型总是写入，对象为null时不写。
+ * <p>
+ * 支持的字段类型：int、long、boolean、float、double 和它们的包装类，String，byte[]，以及具体的 POJO 类型
+ * （有 {@link ProtobufMessage} 的使用生成的 Schema，否则使用 RuntimeSchema）。有其他类型的字段、
+ * 字段既不能直接访问也没有 getter/setter、没有无参构造函数时不生成，给出警告。
+ * <p>
+ * 本工程自己编译时不运行（-proc:none），使用方把本 jar 放在编译的 classpath 上就会自动运行。
+ *
+ * @author yinlei
+ * @since 2026/10/17 20:10
+ */
+@SupportedAnnotationTypes("com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage")
+public class SchemaProcessor extends AbstractProcessor {
+
+    private static final String TAG = "io.protostuff.Tag";
+    private static final String EXCLUDE = "io.protostuff.Exclude";
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(ProtobufMessage.class)) {
+            TypeElement type = (TypeElement) element;
+            String reason = checkType(type);
+            List<Property> properties = null;
+            if (reason == null) {
+                properties = new ArrayList<>();
+                reason = collect(type, type, properties);
+            }
+            if (reason == null) {
+                reason = number(properties);
+            }
+            if (reason != null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Schema not generated, RuntimeSchema will be used: " + reason, type);
+                continue;
+            }
+            try {
+                write(type, properties);
+            } catch (IOException e) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                        "Failed to write schema: " + e.getMessage(), type);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 检查类本身能不能生成 Schema
+     *
+     * @return 不能生成的原因，可以时返回null
+     */
+    private String checkType(TypeElement type) {
+        if (type.getKind() != ElementKind.CLASS) {
+            return "not a class";
+        }
+        Set<Modifier> modifiers = type.getModifiers();
+        if (modifiers.contains(Modifier.ABSTRACT) || modifiers.contains(Modifier.PRIVATE)) {
+            return "abstract or private class";
+        }
+        if (type.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC)) {
+            return "inner class";
+        }
+        if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+            return "local class";
+        }
+        if (!type.getTypeParameters().isEmpty()) {
+            return "generic class";
+        }
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return null;
+            }
+        }
+        return "no accessible no-arg constructor";
+    }
+
+    /**
+     * 和 RuntimeSchema 一样先收集父类的字段，同名的字段替换原来的位置
+     */
+    private String collect(TypeElement root, TypeElement type, List<Property> properties) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() == TypeKind.DECLARED) {
+            TypeElement parent = (TypeElement) ((DeclaredType) superclass).asElement();
+            if (!parent.getQualifiedName().contentEquals("java.lang.Object")) {
+                String reason = collect(root, parent, properties);
+                if (reason != null) {
+                    return reason;
+                }
+            }
+        }
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT)
+                    || annotation(field, EXCLUDE) != null) {
+                continue;
+            }
+            Property property = new Property(field);
+            if (field.getAnnotation(Deprecated.class) == null) {
+                String reason = resolve(root, type, field, property);
+                if (reason != null) {
+                    return field.getSimpleName() + ": " + reason;
+                }
+            }
+            boolean replaced = false;
+            for (int i = 0; i < properties.size(); i++) {
+                if (properties.get(i).name.equals(property.name)) {
+                    properties.set(i, property);
+                    replaced = true;
+                }
+            }
+            if (!replaced) {
+                properties.add(property);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 确定字段的类型和访问方式
+     */
+    private String resolve(TypeElement root, TypeElement owner, VariableElement field, Property property) {
+        TypeMirror type = field.asType();
+        switch (type.getKind()) {
+            case INT:
+                property.kind = Kind.INT32;
+                break;
+            case LONG:
+                property.kind = Kind.INT64;
+                break;
+            case BOOLEAN:
+                property.kind = Kind.BOOL;
+                break;
+            case FLOAT:
+                property.kind = Kind.FLOAT;
+                break;
+            case DOUBLE:
+                property.kind = Kind.DOUBLE;
+                break;
+            case ARRAY:
+                if (((ArrayType) type).getComponentType().getKind() != TypeKind.BYTE) {
+                    return "unsupported array type " + type;
+                }
+                property.kind = Kind.BYTES;
+                break;
+            case DECLARED:
+                String reason = resolveDeclared((DeclaredType) type, property);
+                if (reason != null) {
+                    return reason;
+                }
+                break;
+            default:
+                return "unsupported type " + type;
+        }
+        property.primitive = type.getKind().isPrimitive();
+        property.typeName = type.toString();
+        return resolveAccess(root, owner, field, property);
+    }
+
+    private String resolveDeclared(DeclaredType type, Property property) {
+        TypeElement element = (TypeElement) type.asElement();
+        String name = element.getQualifiedName().toString();
+        switch (name) {
+            case "java.lang.Integer":
+                property.kind = Kind.INT32;
+                return null;
+            case "java.lang.Long":
+                property.kind = Kind.INT64;
+                return null;
+            case "java.lang.Boolean":
+                property.kind = Kind.BOOL;
+                return null;
+            case "java.lang.Float":
+                property.kind = Kind.FLOAT;
+                return null;
+            case "java.lang.Double":
+                property.kind = Kind.DOUBLE;
+                return null;
+            case "java.lang.String":
+                property.kind = Kind.STRING;
+                return null;
+        }
+        // 具体的 POJO，JDK 的类型（集合、日期、数字等）在 RuntimeSchema 中都有特殊的写法，不支持
+        if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)
+                || !element.getTypeParameters().isEmpty() || name.startsWith("java.") || name.startsWith("javax.")) {
+            return "unsupported type " + type;
+        }
+        property.kind = Kind.MESSAGE;
+        if (element.getAnnotation(ProtobufMessage.class) != null && checkType(element) == null) {
+            property.schema = schemaName(element) + ".INSTANCE";
+        } else {
+            property.runtimeSchema = "io.protostuff.runtime.RuntimeSchema.getSchema(" + name + ".class)";
+        }
+        return null;
+    }
+
+    /**
+     * 能直接访问的字段直接访问，否则找 getter/setter
+     */
+    private String resolveAccess(TypeElement root, TypeElement owner, VariableElement field, Property property) {
+        boolean samePackage = packageOf(root).equals(packageOf(owner));
+        Set<Modifier> modifiers = field.getModifiers();
+        if (modifiers.contains(Modifier.FINAL)) {
+            return "final field";
+        }
+        if (visible(modifiers, samePackage)) {
+            property.getter = property.name;
+            property.setter = property.name + " = ";
+            return null;
+        }
+        String capitalized = Character.toUpperCase(property.name.charAt(0)) + property.name.substring(1);
+        String getter = null;
+        String setter = null;
+        for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+            if (!visible(method.getModifiers(), samePackage) || method.getModifiers().contains(Modifier.STATIC)) {
+                continue;
+            }
+            String name = method.getSimpleName().toString();
+            boolean sameType = processingEnv.getTypeUtils().isSameType(method.getReturnType(), field.asType());
+            if (method.getParameters().isEmpty() && sameType
+                    && (name.equals("get" + capitalized) || name.equals("is" + capitalized))) {
+                getter = name + "()";
+            } else if (method.getParameters().size() == 1 && name.equals("set" + capitalized)
+                    && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), field.asType())) {
+                setter = name + "(";
+            }
+        }
+        if (getter == null || setter == null) {
+            return "private field without getter/setter";
+        }
+        property.getter = getter;
+        property.setter = setter;
+        return null;
+    }
+
+    private static boolean visible(Set<Modifier> modifiers, boolean samePackage) {
+        return modifiers.contains(Modifier.PUBLIC) || samePackage && !modifiers.contains(Modifier.PRIVATE);
+    }
+
+    /**
+     * 和 RuntimeSchema 一样编号：没有 @Tag 时按顺序，@Deprecated 的字段占一个编号；有 @Tag 时所有的字段都要有，
+     * 并且按编号排序
+     */
+    private String number(List<Property> properties) {
+        boolean tagged = false;
+        for (Property property : properties) {
+            if (annotation(property.field, TAG) != null) {
+                tagged = true;
+            }
+        }
+        int i = 0;
+        for (Property property : properties) {
+            if (property.field.getAnnotation(Deprecated.class) != null) {
+                i++;
+                continue;
+            }
+            if (!tagged) {
+                property.number = ++i;
+                continue;
+            }
+            AnnotationMirror tag = annotation(property.field, TAG);
+            if (tag == null) {
+                return property.name + " is not annotated with @Tag";
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : processingEnv.getElementUtils().getElementValuesWithDefaults(tag).entrySet()) {
+                String name = entry.getKey().getSimpleName().toString();
+                if (name.equals("value")) {
+                    property.number = (Integer) entry.getValue().getValue();
+                } else if (name.equals("alias") && !"".equals(entry.getValue().getValue())) {
+                    property.alias = (String) entry.getValue().getValue();
+                }
+            }
+        }
+        if (tagged) { // RuntimeSchema 按编号的顺序写入，和声明的顺序无关
+            properties.sort(Comparator.comparingInt(p -> p.number));
+        }
+        return null;
+    }
+
+    private static AnnotationMirror annotation(Element element, String name) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private String packageOf(TypeElement type) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        return pkg.getQualifiedName().toString();
+    }
+
+    /**
+     * 生成的 Schema 的全名：同一个包，类名是 binary name 去掉包名再加上后缀
+     */
+    private String schemaName(TypeElement type) {
+        String pkg = packageOf(type);
+        String binary = processingEnv.getElementUtils().getBinaryName(type).toString();
+        String simple = pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1);
+        return (pkg.isEmpty() ? "" : pkg + ".") + simple + ProtobufMessage.SCHEMA_SUFFIX;
+    }
+
+    private void write(TypeElement type, List<Property> properties) throws IOException {
+        String pkg = packageOf(type);
+        String schemaName = schemaName(type);
+        String simpleName = schemaName.substring(schemaName.lastIndexOf('.') + 1);
+        String typeName = type.getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(type).toString();
+
+        StringBuilder out = new StringBuilder(4096);
+        if (!pkg.isEmpty()) {
+            out.append("package ").append(pkg).append(";\n\n");
+        }
+        out.append("/**\n * Generated by ").append(SchemaProcessor.class.getName()).append(" from ")
+                .append(typeName).append(", do not edit.\n */\n");
+        out.append("public final class ").append(simpleName).append(" implements io.protostuff.Schema<")
+                .append(typeName).append("> {\n\n");
+        out.append("    public static final ").append(simpleName).append(" INSTANCE = new ").append(simpleName)
+                .append("();\n\n");
+        for (Property p : properties) {
+            if (p.runtimeSchema != null) {
+                p.schema = "SCHEMA_" + p.number;
+                out.append("    private static final io.protostuff.Schema<").append(p.typeName).append("> ")
+                        .append(p.schema).append(" = ").append(p.runtimeSchema).append(";\n\n");
+            }
+        }
+
+        out.append("    @Override\n    public String getFieldName(int number) {\n        switch (number) {\n");
+        for (Property p : properties) {
+            if (p.number > 0) {
+                out.append("            case ").append(p.number).append(":\n                return \"")
+                        .append(p.fieldName()).append("\";\n");
+            }
+        }
+        out.append("            default:\n                return null;\n        }\n    }\n\n");
+
+        out.append("    @Override\n    public int getFieldNumber(String name) {\n        switch (name) {\n");
+        for (Property p : properties) {
+            if (p.number > 0) {
+                out.append("            case \"").append(p.fieldName()).append("\":\n                return ")
+                        .append(p.number).append(";\n");
+            }
+        }
+        out.append("            default:\n                return 0;\n        }\n    }\n\n");
+
+        out.append("    @Override\n    public boolean isInitialized(").append(typeName)
+                .append(" message) {\n        return true;\n    }\n\n");
+        out.append("    @Override\n    public ").append(typeName).append(" newMessage() {\n        return new ")
+                .append(typeName).append("();\n    }\n\n");
+        out.append("    @Override\n    public String messageName() {\n        return \"")
+                .append(type.getSimpleName()).append("\";\n    }\n\n");
+        out.append("    @Override\n    public String messageFullName() {\n        return \"")
+                .append(binaryName).append("\";\n    }\n\n");
+        out.append("    @Override\n    public Class<? super ").append(typeName)
+                .append("> typeClass() {\n        return ").append(typeName).append(".class;\n    }\n\n");
+
+        out.append("    @Override\n    public void mergeFrom(io.protostuff.Input input, ").append(typeName)
+                .append(" message) throws java.io.IOException {\n");
+        out.append("        for (int number = input.readFieldNumber(this); number != 0; ")
+                .append("number = input.readFieldNumber(this)) {\n            switch (number) {\n");
+        for (Property p : properties) {
+            if (p.number > 0) {
+                out.append("                case ").append(p.number).append(":\n                    message.")
+                        .append(p.set(p.kind == Kind.MESSAGE
+                                ? "input.mergeObject(message." + p.getter + ", " + p.schema + ")"
+                                : "input." + p.kind.read + "()"))
+                        .append(";\n                    break;\n");
+            }
+        }
+        out.append("                default:\n                    input.handleUnknownField(number, this);\n")
+                .append("            }\n        }\n    }\n\n");
+
+        out.append("    @Override\n    public void writeTo(io.protostuff.Output output, ").append(typeName)
+                .append(" message) throws java.io.IOException {\n");
+        for (Property p : properties) {
+            if (p.number == 0) {
+                continue;
+            }
+            String value = "message." + p.getter;
+            String extra = p.kind == Kind.MESSAGE ? ", " + p.schema : "";
+            if (p.primitive) {
+                out.append("        output.").append(p.kind.write).append('(').append(p.number).append(", ")
+                        .append(value).append(extra).append(", false);\n");
+            } else {
+                String local = "v" + p.number;
+                out.append("        ").append(p.typeName).append(' ').append(local).append(" = ").append(value)
+                        .append(";\n        if (").append(local).append(" != null) {\n            output.")
+                        .append(p.kind.write).append('(').append(p.number).append(", ").append(local)
+                        .append(extra).append(", false);\n        }\n");
+            }
+        }
+        out.append("    }\n}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(schemaName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(out.toString());
+        }
+    }
+
+    /**
+     * 字段类型对应的 Output/Input 方法
+     */
+    private enum Kind {
+        INT32("writeInt32", "readInt32"),
+        INT64("writeInt64", "readInt64"),
+        BOOL("writeBool", "readBool"),
+        FLOAT("writeFloat", "readFloat"),
+        DOUBLE("writeDouble", "readDouble"),
+        STRING("writeString", "readString"),
+        BYTES("writeByteArray", "readByteArray"),
+        MESSAGE("writeObject", null);
+
+        final String write;
+        final String read;
+
+        Kind(String write, String read) {
+            this.write = write;
+            this.read = read;
+        }
+    }
+
+    private static final class Property {
+        final VariableElement field;
+        final String name;
+        Kind kind;
+        boolean primitive;
+        String typeName;
+        /** 嵌套对象的 Schema 表达式 */
+        String schema;
+        /** 嵌套对象使用 RuntimeSchema 时取得它的表达式，结果放在静态字段中 */
+        String runtimeSchema;
+        /** 读取的表达式，不包括前面的 message. */
+        String getter;
+        /** 赋值的前半部分，不包括前面的 message. */
+        String setter;
+        /** 0表示 @Deprecated，不读写 */
+        int number;
+        String alias;
+
+        Property(VariableElement field) {
+            this.field = field;
+            this.name = field.getSimpleName().toString();
+        }
+
+        String fieldName() {
+            return alias != null ? alias : name;
+        }
+
+        String set(String value) {
+            return setter.endsWith("(") ? setter + value + ")" : setter + value;
+        }
+    }
+}
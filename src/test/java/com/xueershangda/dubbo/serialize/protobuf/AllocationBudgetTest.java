@@ -0,0 +1,183 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.alibaba.dubbo.common.URL;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * 热路径的分配预算。用 ThreadMXBean 统计预热之后每次编码、解码在当前线程上分配的字节数，超过预算就失败，
+ * ProtobufObjectOutput.check()、writeObject、readObject(Class, Type) 这些地方多出来的分配在构建时就能发现。
+ * <p>
+ * 预算是 JDK 8 和 17 上的实测值加上余量（不同版本的逃逸分析不一样）。确实需要多分配时，
+ * 把失败信息中的实测值和原因一起写到预算上。JVM 不支持统计线程分配时跳过。
+ *
+ * @author yinlei
+ * @since 2026/10/17 22:30
+ */
+public class AllocationBudgetTest {
+
+    private static final int WARM_UP = 10000;
+    private static final int ITERATIONS = 2000;
+
+    private static final URL URL_DEFAULT = URL.valueOf("dubbo://127.0.0.1:20880/budget");
+    private static final URL URL_COMPACT = URL.valueOf("dubbo://127.0.0.1:20880/budget?protobuf.compact=true");
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    private final RoundTripFuzzTest.Item item = RoundTripFuzzTest.randomItem(new Random(7), 1);
+    private final List<RoundTripFuzzTest.Item> items = items(100);
+    private final Map<String, String> attachments = attachments();
+
+    @BeforeClass
+    public static void checkSupported() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /** Dubbo 的请求：5个字符串、一个 POJO 参数和 attachments */
+    @Test
+    public void encodeRequest() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+        assertBudget("encodeRequest", 1700, new Scenario() {
+            @Override
+            public void run() throws Exception {
+                bos.reset();
+                writeRequest(URL_DEFAULT, bos);
+            }
+        });
+    }
+
+    @Test
+    public void encodeRequestCompact() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(4096);
+        assertBudget("encodeRequestCompact", 1700, new Scenario() {
+            @Override
+            public void run() throws Exception {
+                bos.reset();
+                writeRequest(URL_COMPACT, bos);
+            }
+        });
+    }
+
+    @Test
+    public void decodeRequest() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writeRequest(URL_DEFAULT, bos);
+        final byte[] data = bos.toByteArray();
+        final Type attachmentType = AllocationBudgetTest.class.getDeclaredField("attachments").getGenericType();
+        // 大部分是 IOUtils.toByteArray 读取整个输入流的缓冲区
+        assertBudget("decodeRequest", 17000, new Scenario() {
+            @Override
+            public void run() throws Exception {
+                ProtobufObjectInput in = new ProtobufObjectInput(URL_DEFAULT, new ByteArrayInputStream(data));
+                for (int i = 0; i < 5; i++) {
+                    in.readUTF();
+                }
+                in.readObject(RoundTripFuzzTest.Item.class);
+                in.readObject(Map.class, attachmentType);
+            }
+        });
+    }
+
+    /** 较大的结果：100个 POJO 的 List */
+    @Test
+    public void encodeList() throws Exception {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+        assertBudget("encodeList", 8000, new Scenario() {
+            @Override
+            public void run() throws Exception {
+                bos.reset();
+                ProtobufObjectOutput out = new ProtobufObjectOutput(URL_DEFAULT, bos);
+                out.writeByte((byte) 1);
+                out.writeObject(items);
+                out.flushBuffer();
+            }
+        });
+    }
+
+    @Test
+    public void decodeList() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ProtobufObjectOutput out = new ProtobufObjectOutput(URL_DEFAULT, bos);
+        out.writeObject(items);
+        out.flushBuffer();
+        final byte[] data = bos.toByteArray();
+        final Type listType = AllocationBudgetTest.class.getDeclaredField("items").getGenericType();
+        // 解码的结果本身就要分配（实测约 180-210K），预算主要防止每个元素多出来的分配
+        assertBudget("decodeList", 260000, new Scenario() {
+            @Override
+            public void run() throws Exception {
+                ProtobufObjectInput in = new ProtobufObjectInput(URL_DEFAULT, new ByteArrayInputStream(data));
+                List<?> list = in.readObject(List.class, listType);
+                assertEquals(100, list.size());
+            }
+        });
+    }
+
+    private void writeRequest(URL url, ByteArrayOutputStream bos) throws Exception {
+        ProtobufObjectOutput out = new ProtobufObjectOutput(url, bos);
+        out.writeUTF("2.0.2");
+        out.writeUTF("com.xueershangda.demo.OrderService");
+        out.writeUTF("1.0.0");
+        out.writeUTF("query");
+        out.writeUTF("Lcom/xueershangda/demo/Item;");
+        out.writeObject(item);
+        out.writeObject(attachments);
+        out.flushBuffer();
+    }
+
+    /**
+     * 预热之后运行 ITERATIONS 次，平均每次分配的字节数不能超过预算
+     */
+    private static void assertBudget(String name, long budget, Scenario scenario) throws Exception {
+        for (int i = 0; i < WARM_UP; i++) {
+            scenario.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            scenario.run();
+        }
+        long perOp = (threadBean.getThreadAllocatedBytes(threadId) - before) / ITERATIONS;
+        assertTrue(name + " allocated " + perOp + " bytes/op, budget is " + budget + ".", perOp <= budget);
+    }
+
+    private static List<RoundTripFuzzTest.Item> items(int size) {
+        Random random = new Random(11);
+        List<RoundTripFuzzTest.Item> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(RoundTripFuzzTest.randomItem(random, 0));
+        }
+        return list;
+    }
+
+    private static Map<String, String> attachments() {
+        Map<String, String> map = new HashMap<>();
+        map.put("path", "com.xueershangda.demo.OrderService");
+        map.put("interface", "com.xueershangda.demo.OrderService");
+        map.put("version", "1.0.0");
+        map.put("timeout", "3000");
+        return map;
+    }
+
+    private interface Scenario {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,571 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.alibaba.dubbo.common.URL;
+import com.alibaba.dubbo.common.serialize.ObjectInput;
+import com.alibaba.dubbo.common.serialize.ObjectOutput;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 随机生成的基本类型、字符串、POJO 和嵌套集合按各种 URL 配置写入再读出，结果必须和写入的相同。
+ * <p>
+ * 每个配置跑固定的一组种子，失败时的信息中有种子和配置，可以用 {@link #roundTrip(String, long)} 单独重现。
+ *
+ * @author yinlei
+ * @since 2026/10/17 22:30
+ */
+public class RoundTripFuzzTest {
+
+    private static final int SEEDS = 25;
+
+    /** 阈值调得很小，较短的数据也能用到分块、延迟解码、并行编码和流式读取 */
+    private static final String[] CONFIGS = {
+            "dubbo://127.0.0.1:20880/fuzz",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.compact=true&protobuf.packed=true",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.compressor=lz&protobuf.compress.threshold=64",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.dictionary=true&protobuf.intern=true",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.chunked=true&protobuf.chunk.size=256&protobuf.compact=true",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.lazy=true&protobuf.lazy.threshold=32",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.decode.stream=true&protobuf.decode.window=128",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.parallel=true&protobuf.parallel.threshold=8&protobuf.parallel.threads=2",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.collection.count=true&protobuf.version=2"
+                    + "&protobuf.native.messages=true",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.string.map=true&protobuf.compressor=lz&protobuf.compress.threshold=64",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.version=1&protobuf.compact=true&protobuf.chunked=true"
+                    + "&protobuf.string.map=true",
+            "dubbo://127.0.0.1:20880/fuzz?protobuf.exception=stack&protobuf.compact=true&protobuf.dictionary=true"
+                    + "&protobuf.packed=true&protobuf.native.messages=true"
+                    + "&protobuf.compressor=lz&protobuf.collection.count=true&protobuf.decode.stream=true"
+                    + "&protobuf.decode.window=64&protobuf.string.map=true",
+    };
+
+    @Test
+    public void roundTripAllConfigs() throws Exception {
+        for (String config : CONFIGS) {
+            for (long seed = 1; seed <= SEEDS; seed++) {
+                roundTrip(config, seed);
+            }
+        }
+    }
+
+    /** 字典也引用重复的 byte[]：读出来相同，并且比不用字典的短 */
+    @Test
+    public void dictionaryBytes() throws Exception {
+        Random random = new Random(3);
+        byte[] data = new byte[48];
+        random.nextBytes(data);
+        List<Item> items = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            Item item = randomItem(random, 0);
+            item.data = Arrays.copyOf(data, data.length);
+            items.add(item);
+        }
+        byte[] plain = write("dubbo://127.0.0.1:20880/fuzz", items);
+        byte[] referenced = write("dubbo://127.0.0.1:20880/fuzz?protobuf.dictionary=true", items);
+        assertTrue(plain.length + " -> " + referenced.length, referenced.length < plain.length - 10 * data.length);
+        ObjectInput in = new ProtobufSerialization().deserialize(URL.valueOf("dubbo://127.0.0.1:20880/fuzz"),
+                new ByteArrayInputStream(referenced));
+        assertEquals(items, in.readObject(List.class, Types.type("items")));
+    }
+
+    /** 没有声明类型的 readObject() 也能读取外层的帧，读不了的帧直接失败，不返回null */
+    @Test
+    public void untypedReadObject() throws Exception {
+        Map<String, String> map = new LinkedHashMap<>();
+        map.put("path", "com.xueershangda.demo.OrderService");
+        map.put("key", randomString(new Random(5)));
+        String[] configs = {"dubbo://127.0.0.1:20880/fuzz?protobuf.collection.count=true",
+                "dubbo://127.0.0.1:20880/fuzz?protobuf.dictionary=true&protobuf.compact=true",
+                "dubbo://127.0.0.1:20880/fuzz?protobuf.compressor=lz&protobuf.compress.threshold=16",
+                "dubbo://127.0.0.1:20880/fuzz?protobuf.string.map=true&protobuf.collection.count=true"};
+        for (String config : configs) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            ObjectOutput out = new ProtobufSerialization().serialize(URL.valueOf(config), bos);
+            out.writeObject(map);
+            out.writeInt(42);
+            out.flushBuffer();
+            ObjectInput in = new ProtobufSerialization().deserialize(URL.valueOf(config),
+                    new ByteArrayInputStream(bos.toByteArray()));
+            assertEquals(config, map, in.readObject());
+            assertEquals(config, 42, in.readObject());
+        }
+
+        byte[] list = write("dubbo://127.0.0.1:20880/fuzz?protobuf.collection.count=true",
+                Arrays.asList(randomItem(new Random(1), 0)));
+        assertUnreadable(list);
+        assertUnreadable(new byte[]{100, 0, 0, 0, 0});
+        // byte[] 的长度是负数或者超过了剩下的数据（紧凑格式和原格式）
+        assertUnreadable(new byte[]{(byte) 0xDF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        assertUnreadable(new byte[]{(byte) 0xDF, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04, 1, 2});
+        assertUnreadable(new byte[]{14, 0x7F, 0, 0, 0, 1, 2});
+    }
+
+    private static void assertUnreadable(byte[] data) throws Exception {
+        ObjectInput in = new ProtobufSerialization().deserialize(URL.valueOf("dubbo://127.0.0.1:20880/fuzz"),
+                new ByteArrayInputStream(data));
+        try {
+            in.readObject();
+            fail("readObject() should fail, data type=" + data[0]);
+        } catch (IOException e) {
+            // 期望的
+        }
+    }
+
+    private static byte[] write(String config, Object value) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutput out = new ProtobufSerialization().serialize(URL.valueOf(config), bos);
+        out.writeObject(value);
+        out.flushBuffer();
+        return bos.toByteArray();
+    }
+
+    /**
+     * 按种子生成一串数据，写入再读出
+     */
+    static void roundTrip(String config, long seed) throws Exception {
+        URL url = URL.valueOf(config);
+        Random random = new Random(seed);
+        List<Value> values = new ArrayList<>();
+        int count = 1 + random.nextInt(30);
+        for (int i = 0; i < count; i++) {
+            values.add(randomValue(random));
+        }
+        ProtobufSerialization serialization = new ProtobufSerialization();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutput out = serialization.serialize(url, bos);
+        for (Value value : values) {
+            value.write(out);
+        }
+        out.flushBuffer();
+        // simple 模式（以及版本1）写的是最初的异常帧，读出来和以前一样是 RuntimeException
+        boolean typedExceptions = !ProtobufConstants.EXCEPTION_SIMPLE.equals(url.getParameter(
+                ProtobufConstants.EXCEPTION_KEY, ProtobufConstants.EXCEPTION_SIMPLE))
+                && url.getParameter(ProtobufConstants.VERSION_KEY, 0) != ProtobufConstants.VERSION_1;
+        ObjectInput in = serialization.deserialize(url, new ByteArrayInputStream(bos.toByteArray()));
+        for (int i = 0; i < values.size(); i++) {
+            Value value = values.get(i);
+            try {
+                value.check(in, typedExceptions);
+            } catch (Exception | AssertionError e) {
+                throw new AssertionError("seed=" + seed + ", value " + i + " (" + value.kind + "), url=" + config, e);
+            }
+        }
+    }
+
+    private static Value randomValue(Random random) {
+        switch (random.nextInt(23)) {
+            case 0:
+                return new Value("bool", random.nextBoolean());
+            case 1:
+                return new Value("byte", (byte) random.nextInt());
+            case 2:
+                return new Value("short", (short) random.nextInt());
+            case 3:
+                return new Value("int", randomInt(random));
+            case 4:
+                return new Value("long", randomLong(random));
+            case 5:
+                return new Value("float", random.nextFloat() * randomInt(random));
+            case 6:
+                return new Value("double", random.nextDouble() * randomLong(random));
+            case 7: // 偶尔是 attachments 中也会出现的字符串
+                return new Value("utf", random.nextInt(4) == 0 ? randomAttachment(random) : randomString(random));
+            case 8:
+                return new Value("bytes", randomBytes(random));
+            case 9:
+                return new Value("item", randomItem(random, 2));
+            case 10:
+                return new Value("items", randomItems(random, new ArrayList<Item>()), Types.type("items"));
+            case 11:
+                return new Value("itemSet", randomItems(random, new HashSet<Item>()), Types.type("itemSet"));
+            case 12:
+                Map<String, Item> map = new HashMap<>();
+                int size = randomSize(random);
+                for (int i = 0; i < size; i++) {
+                    map.put(randomString(random) + i, randomItem(random, 1));
+                }
+                return new Value("itemMap", map, Types.type("itemMap"));
+            case 13:
+                List<Integer> ints = new ArrayList<>();
+                for (int i = randomSize(random); i > 0; i--) {
+                    ints.add(randomInt(random));
+                }
+                return new Value("ints", ints, Types.type("ints"));
+            case 14:
+                List<Long> longs = new ArrayList<>();
+                for (int i = randomSize(random); i > 0; i--) {
+                    longs.add(randomLong(random));
+                }
+                return new Value("longs", longs, Types.type("longs"));
+            case 15:
+                List<Double> doubles = new ArrayList<>();
+                for (int i = randomSize(random); i > 0; i--) {
+                    doubles.add(random.nextGaussian());
+                }
+                return new Value("doubles", doubles, Types.type("doubles"));
+            case 16:
+                return new Value("bigNumber", random.nextBoolean() ? new BigInteger(random.nextInt(200), random)
+                        : new BigDecimal(new BigInteger(random.nextInt(100), random), random.nextInt(20) - 10));
+            case 17:
+                int[] array = new int[random.nextInt(50)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = randomInt(random);
+                }
+                return new Value("intArray", array);
+            case 18:
+                return new Value("exception", new IllegalStateException("boom-" + randomString(random) + "!"));
+            case 19: // protobuf-java 生成的消息
+                return new Value("message", random.nextBoolean()
+                        ? Timestamp.newBuilder().setSeconds(randomLong(random)).setNanos(random.nextInt(1000000000)).build()
+                        : StringValue.newBuilder().setValue(randomString(random)).build());
+            case 20: // Dubbo 的 attachments，读取时没有泛型
+                Map<String, String> attachments = new LinkedHashMap<>();
+                for (int i = 1 + random.nextInt(6); i > 0; i--) {
+                    attachments.put(random.nextBoolean() ? ATTACHMENT_KEYS[random.nextInt(ATTACHMENT_KEYS.length)]
+                            : randomString(random) + i, randomAttachment(random));
+                }
+                return new Value("attachments", attachments);
+            case 21: // 方法签名上声明的是具体的 List，打开 packed 时也要读出这个类型
+                int length = 1 + random.nextInt(20);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        ArrayList<Long> longList = new ArrayList<>();
+                        for (int i = 0; i < length; i++) {
+                            longList.add(randomLong(random));
+                        }
+                        return new Value("concreteList", longList, Types.type("longArrayList"));
+                    case 1:
+                        LinkedList<Integer> intList = new LinkedList<>();
+                        for (int i = 0; i < length; i++) {
+                            intList.add(randomInt(random));
+                        }
+                        return new Value("concreteList", intList, Types.type("intLinkedList"));
+                    default:
+                        ArrayList<Double> doubleList = new ArrayList<>();
+                        for (int i = 0; i < length; i++) {
+                            doubleList.add(random.nextGaussian());
+                        }
+                        return new Value("concreteList", doubleList, Types.type("doubleArrayList"));
+                }
+            default: // 装箱的基本类型和字符串按对象写入
+                Object[] boxed = {randomInt(random), randomLong(random), random.nextDouble(), randomString(random)};
+                return new Value("object", boxed[random.nextInt(boxed.length)]);
+        }
+    }
+
+    private static final String[] ATTACHMENT_KEYS = {"path", "interface", "version", "group", "timeout", "traceId"};
+
+    private static String randomAttachment(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return "com.xueershangda.demo.OrderService";
+            case 1:
+                return random.nextBoolean() ? "1.0.0" : "3000";
+            default:
+                return randomString(random) + "!";
+        }
+    }
+
+    private static <C extends java.util.Collection<Item>> C randomItems(Random random, C collection) {
+        int size = randomSize(random);
+        for (int i = 0; i < size; i++) {
+            Item item = randomItem(random, 1);
+            item.id = i; // Set 中的元素不能重复
+            collection.add(item);
+        }
+        return collection;
+    }
+
+    static Item randomItem(Random random, int depth) {
+        Item item = new Item();
+        item.id = randomLong(random);
+        item.count = randomInt(random);
+        item.price = random.nextDouble();
+        item.enabled = random.nextBoolean();
+        item.name = random.nextInt(4) == 0 ? null : randomString(random);
+        if (random.nextBoolean()) { // protostuff 不写入空的集合字段，读出来是null，所以不生成空的
+            item.tags = new ArrayList<>();
+            for (int i = 1 + random.nextInt(5); i > 0; i--) {
+                item.tags.add(randomString(random));
+            }
+        }
+        if (random.nextBoolean()) {
+            item.attributes = new LinkedHashMap<>();
+            for (int i = 1 + random.nextInt(4); i > 0; i--) {
+                item.attributes.put(randomString(random) + i, randomInt(random));
+            }
+        }
+        item.data = random.nextInt(3) == 0 ? randomBytes(random) : null;
+        if (depth > 0 && random.nextBoolean()) {
+            item.child = randomItem(random, depth - 1);
+        }
+        return item;
+    }
+
+    /** 大部分是很短的集合，偶尔有较长的，能超过各种阈值 */
+    private static int randomSize(Random random) {
+        int n = random.nextInt(10);
+        return n < 6 ? n : n < 9 ? random.nextInt(100) : random.nextInt(2000);
+    }
+
+    /** 偏向于边界值 */
+    private static int randomInt(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(32) - 16;
+            case 1:
+                return random.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            default:
+                return random.nextInt();
+        }
+    }
+
+    private static long randomLong(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return random.nextInt(32) - 16;
+            case 1:
+                return random.nextBoolean() ? Long.MIN_VALUE : Long.MAX_VALUE;
+            default:
+                return random.nextLong();
+        }
+    }
+
+    /**
+     * ASCII、拉丁字母、中文和补充平面的字符（成对的代理项）混在一起，长度偶尔超过 String 缓存的范围
+     */
+    static String randomString(Random random) {
+        int length = random.nextInt(10) == 0 ? random.nextInt(500) : random.nextInt(20);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            switch (random.nextInt(6)) {
+                case 0:
+                    sb.append((char) (0xA0 + random.nextInt(0x700)));
+                    break;
+                case 1:
+                    sb.append((char) (0x4E00 + random.nextInt(0x5000)));
+                    break;
+                case 2:
+                    sb.appendCodePoint(0x10000 + random.nextInt(0x10000));
+                    break;
+                default:
+                    sb.append((char) random.nextInt(0x80));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static byte[] randomBytes(Random random) {
+        byte[] bytes = new byte[random.nextInt(64)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * 一个写入的值，以及读取和校验的方式
+     */
+    private static final class Value {
+        final String kind;
+        final Object value;
+        final Type type;
+
+        Value(String kind, Object value) {
+            this(kind, value, null);
+        }
+
+        Value(String kind, Object value, Type type) {
+            this.kind = kind;
+            this.value = value;
+            this.type = type;
+        }
+
+        void write(ObjectOutput out) throws IOException {
+            switch (kind) {
+                case "bool":
+                    out.writeBool((Boolean) value);
+                    break;
+                case "byte":
+                    out.writeByte((Byte) value);
+                    break;
+                case "short":
+                    out.writeShort((Short) value);
+                    break;
+                case "int":
+                    out.writeInt((Integer) value);
+                    break;
+                case "long":
+                    out.writeLong((Long) value);
+                    break;
+                case "float":
+                    out.writeFloat((Float) value);
+                    break;
+                case "double":
+                    out.writeDouble((Double) value);
+                    break;
+                case "utf":
+                    out.writeUTF((String) value);
+                    break;
+                case "bytes":
+                    out.writeBytes((byte[]) value);
+                    break;
+                default:
+                    out.writeObject(value);
+            }
+        }
+
+        void check(ObjectInput in, boolean typedExceptions) throws IOException, ClassNotFoundException {
+            switch (kind) {
+                case "bool":
+                    assertEquals(value, in.readBool());
+                    break;
+                case "byte":
+                    assertEquals(value, in.readByte());
+                    break;
+                case "short":
+                    assertEquals(value, in.readShort());
+                    break;
+                case "int":
+                    assertEquals(value, in.readInt());
+                    break;
+                case "long":
+                    assertEquals(value, in.readLong());
+                    break;
+                case "float":
+                    assertEquals(value, in.readFloat());
+                    break;
+                case "double":
+                    assertEquals(value, in.readDouble());
+                    break;
+                case "utf":
+                    assertEquals(emptyToNull(value), in.readUTF());
+                    break;
+                case "bytes":
+                    assertArrayEquals((byte[]) value, in.readBytes());
+                    break;
+                case "intArray":
+                    assertArrayEquals((int[]) value, (int[]) in.readObject(int[].class));
+                    break;
+                case "exception":
+                    Throwable expected = (Throwable) value;
+                    Throwable actual = in.readObject(Throwable.class);
+                    if (typedExceptions) {
+                        assertEquals(expected.getClass(), actual.getClass());
+                        assertEquals(expected.getMessage(), actual.getMessage());
+                    } else {
+                        assertEquals(RuntimeException.class, actual.getClass());
+                        assertEquals(expected.getClass().getName() + ";message=" + expected.getMessage(),
+                                actual.getMessage());
+                    }
+                    break;
+                case "itemSet":
+                    assertEquals(value, new HashSet<>(in.readObject(Set.class, type)));
+                    break;
+                case "concreteList":
+                    Object list = in.readObject(value.getClass(), type);
+                    assertEquals(value.getClass(), list.getClass());
+                    assertEquals(value, list);
+                    break;
+                default:
+                    // 和 Dubbo 一样按方法签名上声明的接口读取
+                    Class<?> cls = value instanceof List ? List.class : value instanceof Map ? Map.class : value.getClass();
+                    Object result = type != null ? in.readObject(cls, type) : in.readObject(cls);
+                    assertEquals(emptyToNull(value), result);
+            }
+        }
+
+        /** 长度为0的字符串和null写入的格式相同 */
+        private static Object emptyToNull(Object value) {
+            return "".equals(value) ? null : value;
+        }
+
+        @Override
+        public String toString() {
+            return kind + "=" + value;
+        }
+    }
+
+    /**
+     * 读取集合时使用的泛型
+     */
+    @SuppressWarnings("unused")
+    private static final class Types {
+        List<Item> items;
+        Set<Item> itemSet;
+        Map<String, Item> itemMap;
+        List<Integer> ints;
+        List<Long> longs;
+        List<Double> doubles;
+        ArrayList<Long> longArrayList;
+        LinkedList<Integer> intLinkedList;
+        ArrayList<Double> doubleArrayList;
+
+        static Type type(String field) {
+            try {
+                return Types.class.getDeclaredField(field).getGenericType();
+            } catch (NoSuchFieldException e) {
+                throw new IllegalArgumentException(field, e);
+            }
+        }
+    }
+
+    public static class Item {
+        long id;
+        int count;
+        double price;
+        boolean enabled;
+        String name;
+        List<String> tags;
+        Map<String, Integer> attributes;
+        byte[] data;
+        Item child;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            Item item = (Item) o;
+            return id == item.id && count == item.count && Double.compare(price, item.price) == 0
+                    && enabled == item.enabled && Objects.equals(name, item.name) && Objects.equals(tags, item.tags)
+                    && Objects.equals(attributes, item.attributes) && Arrays.equals(data, item.data)
+                    && Objects.equals(child, item.child);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
+        }
+
+        @Override
+        public String toString() {
+            return "Item" + id;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.xueershangda.dubbo.serialize.protobuf;
+
+import com.alibaba.dubbo.common.URL;
+import com.google.protobuf.Timestamp;
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.runtime.RuntimeSchema;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 没有配置 protobuf.* 参数的写入方必须写出最初的格式，还没有升级的节点才能读取，滚动升级才能进行。
+ *
+ * @author yinlei
+ * @since 2026/10/18 10:30
+ */
+public class WireCompatibilityTest {
+
+    private static final URL URL_DEFAULT = URL.valueOf("dubbo://127.0.0.1:20880/compat");
+
+    /** 各种参数、结果和 attachments 写出的每一帧的类型都不超过16，也没有版本头 */
+    @Test
+    public void defaultWriterUsesBaselineTags() throws Exception {
+        Random random = new Random(17);
+        List<RoundTripFuzzTest.Item> items = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            RoundTripFuzzTest.Item item = RoundTripFuzzTest.randomItem(random, 1);
+            item.id = i;
+            items.add(item);
+        }
+        Map<String, String> attachments = new HashMap<>();
+        attachments.put("path", "com.xueershangda.demo.OrderService");
+        attachments.put("interface", "com.xueershangda.demo.OrderService");
+        attachments.put("version", "1.0.0");
+        Map<String, RoundTripFuzzTest.Item> itemMap = new LinkedHashMap<>();
+        itemMap.put("first", items.get(0));
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ProtobufObjectOutput out = new ProtobufObjectOutput(URL_DEFAULT, bos);
+        out.writeUTF("2.0.2");
+        out.writeUTF("com.xueershangda.demo.OrderService");
+        out.writeBool(true);
+        out.writeByte((byte) 1);
+        out.writeShort((short) 2);
+        out.writeInt(3);
+        out.writeLong(4L);
+        out.writeFloat(5f);
+        out.writeDouble(6d);
+        out.writeBytes(new byte[]{7, 8});
+        out.writeObject(null);
+        out.writeObject(new BigDecimal("9.10"));
+        out.writeObject(items.get(1));
+        out.writeObject(items);
+        out.writeObject(new HashSet<>(items));
+        out.writeObject(itemMap);
+        out.writeObject(Arrays.asList(1, 2, 3));
+        out.writeObject(Arrays.asList(1L, 2L, 3L));
+        out.writeObject(Arrays.asList(1d, 2d, 3d));
+        out.writeObject(Collections.emptyList());
+        out.writeObject(Timestamp.newBuilder().setSeconds(11L).build());
+        out.writeObject(new IllegalStateException("boom", new RuntimeException("cause")));
+        out.writeObject(attachments);
+        out.flushBuffer();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bos.toByteArray());
+        int frames = 0;
+        while (buffer.hasRemaining()) {
+            byte tag = buffer.get();
+            assertTrue("frame " + frames + " has tag " + tag, tag >= 0 && tag <= 16);
+            skipBaselineFrame(tag, buffer);
+            frames++;
+        }
+        assertEquals(23, frames);
+    }
+
+    /**
+     * 按最初的格式跳过一帧，类型已经读取过了
+     */
+    private static void skipBaselineFrame(byte tag, ByteBuffer buffer) {
+        switch (tag) {
+            case 0:
+            case 1:
+            case 2:
+            case 3:
+                int total = buffer.getInt(); // 包括类型和长度，空的集合是0
+                buffer.position(buffer.position() + Math.max(0, total - 5));
+                break;
+            case 4:
+            case 10:
+                buffer.position(buffer.position() + 4);
+                break;
+            case 5:
+            case 6:
+                buffer.position(buffer.position() + 8);
+                break;
+            case 9:
+            case 13:
+                buffer.get();
+                break;
+            case 11:
+                buffer.getShort();
+                break;
+            case 16:
+                int length = buffer.getInt();
+                buffer.getInt(); // 类名的长度
+                buffer.position(buffer.position() + length);
+                break;
+            default: // 7、8、12、14：长度 + 内容
+                length = buffer.getInt();
+                buffer.position(buffer.position() + length);
+        }
+    }
+
+    /** protobuf-java 的消息默认和普通对象一样按 RuntimeSchema 写入 */
+    @Test
+    public void defaultWriterWritesMessageAsPojo() throws Exception {
+        Timestamp timestamp = Timestamp.newBuilder().setSeconds(1700000000L).setNanos(123456789).build();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ProtobufObjectOutput out = new ProtobufObjectOutput(URL_DEFAULT, bos);
+        out.writeObject(timestamp);
+        out.flushBuffer();
+
+        byte[] body = ProtostuffIOUtil.toByteArray(timestamp, RuntimeSchema.getSchema(Timestamp.class),
+                LinkedBuffer.allocate(256));
+        ByteBuffer expected = ByteBuffer.allocate(5 + body.length);
+        expected.put((byte) 0);
+        expected.putInt(5 + body.length);
+        expected.put(body);
+        assertArrayEquals(expected.array(), bos.toByteArray());
+
+        ProtobufObjectInput in = new ProtobufObjectInput(URL_DEFAULT, new ByteArrayInputStream(bos.toByteArray()));
+        assertEquals(timestamp, in.readObject(Timestamp.class));
+    }
+}
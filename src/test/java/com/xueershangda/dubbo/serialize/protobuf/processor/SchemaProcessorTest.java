@@ -0,0 +1,269 @@
+package com.xueershangda.dubbo.serialize.protobuf.processor;
+
+import io.protostuff.LinkedBuffer;
+import io.protostuff.ProtostuffIOUtil;
+import io.protostuff.Schema;
+import io.protostuff.runtime.RuntimeSchema;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+/**
+ * 用 SchemaProcessor 编译带 @ProtobufMessage 的 DTO，生成的 Schema 和 RuntimeSchema 写出的数据必须完全相同，
+ * 字段编号也必须一致，否则服务双方一方用生成的 Schema、另一方用 RuntimeSchema 时就读错了。
+ *
+ * @author yinlei
+ * @since 2026/10/18 11:40
+ */
+public class SchemaProcessorTest {
+
+    private static final String PACKAGE = "com.xueershangda.demo.dto";
+
+    private static final String[][] SOURCES = {
+            {"Base", "package " + PACKAGE + ";\n"
+                    + "public class Base {\n"
+                    + "    public long baseId;\n"
+                    + "    public String baseName;\n"
+                    + "}\n"},
+            // 没有 @ProtobufMessage，嵌套时使用 RuntimeSchema
+            {"Address", "package " + PACKAGE + ";\n"
+                    + "public class Address {\n"
+                    + "    public String city;\n"
+                    + "    public int zip;\n"
+                    + "}\n"},
+            {"Child", "package " + PACKAGE + ";\n"
+                    + "@com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage\n"
+                    + "public class Child {\n"
+                    + "    public String name;\n"
+                    + "    public Double score;\n"
+                    + "}\n"},
+            {"Order", "package " + PACKAGE + ";\n"
+                    + "@com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage\n"
+                    + "public class Order extends Base {\n"
+                    + "    public static int ignoredStatic;\n"
+                    + "    public int count;\n"
+                    + "    public long amount;\n"
+                    + "    public boolean paid;\n"
+                    + "    public float rate;\n"
+                    + "    public double price;\n"
+                    + "    public transient String ignoredTransient;\n"
+                    + "    public Integer boxedInt;\n"
+                    + "    public Long boxedLong;\n"
+                    + "    @Deprecated\n"
+                    + "    public String removed;\n"
+                    + "    public Boolean boxedBool;\n"
+                    + "    public Float boxedFloat;\n"
+                    + "    public Double boxedDouble;\n"
+                    + "    public String remark;\n"
+                    + "    public byte[] payload;\n"
+                    + "    public Child child;\n"
+                    + "    public Address address;\n"
+                    + "    private String secret;\n"
+                    + "    public String getSecret() { return secret; }\n"
+                    + "    public void setSecret(String secret) { this.secret = secret; }\n"
+                    + "}\n"},
+            {"Tagged", "package " + PACKAGE + ";\n"
+                    + "import io.protostuff.Tag;\n"
+                    + "@com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage\n"
+                    + "public class Tagged {\n"
+                    + "    @Tag(7) public int count;\n"
+                    + "    @Tag(3) public Long total;\n"
+                    + "    @Tag(value = 20, alias = \"n\") public String name;\n"
+                    + "    @Tag(11) public byte[] data;\n"
+                    + "    @Tag(5) public Child child;\n"
+                    + "}\n"},
+    };
+
+    private static Path root;
+    private static URLClassLoader loader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeNotNull(compiler); // 只有 JRE 时跳过
+        root = Files.createTempDirectory("schema-processor");
+        Path classes = Files.createDirectories(root.resolve("classes"));
+        Path generated = Files.createDirectories(root.resolve("generated"));
+
+        List<JavaFileObject> units = new ArrayList<>();
+        for (String[] source : SOURCES) {
+            units.add(new Source(PACKAGE + "." + source[0], source[1]));
+        }
+        List<String> options = Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                "-d", classes.toString(), "-s", generated.toString(),
+                "-processor", SchemaProcessor.class.getName());
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, null, null)) {
+            boolean ok = compiler.getTask(null, fileManager, diagnostics, options, null, units).call();
+            for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+                // 有警告说明某个类没有生成 Schema
+                assertTrue(diagnostic.toString(), diagnostic.getKind() == Diagnostic.Kind.NOTE);
+            }
+            assertTrue("compile failed", ok);
+        }
+        loader = new URLClassLoader(new URL[]{classes.toUri().toURL()}, SchemaProcessorTest.class.getClassLoader());
+    }
+
+    @AfterClass
+    public static void cleanUp() throws IOException {
+        if (loader != null) {
+            loader.close();
+        }
+        if (root != null) {
+            try (Stream<Path> paths = Files.walk(root)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    /** 基本类型、包装类型、String、byte[]、嵌套对象、父类字段、getter/setter、@Deprecated 占用编号 */
+    @Test
+    public void untaggedFieldsMatchRuntimeSchema() throws Exception {
+        Object child = newInstance("Child");
+        set(child, "name", "child");
+        set(child, "score", 9.5d);
+        Object address = newInstance("Address");
+        set(address, "city", "Beijing");
+        set(address, "zip", 100000);
+
+        Object order = newInstance("Order");
+        set(order, "baseId", 42L);
+        set(order, "baseName", "base");
+        set(order, "count", -3);
+        set(order, "amount", Long.MAX_VALUE);
+        set(order, "paid", true);
+        set(order, "rate", 0.25f);
+        set(order, "price", -1.5d);
+        set(order, "ignoredTransient", "not written");
+        set(order, "boxedInt", 7);
+        set(order, "boxedLong", -8L);
+        set(order, "removed", "not written");
+        set(order, "boxedBool", false);
+        set(order, "boxedFloat", 1.25f);
+        set(order, "boxedDouble", 2.5d);
+        set(order, "remark", "中文备注");
+        set(order, "payload", new byte[]{0, 1, -1, 127});
+        set(order, "child", child);
+        set(order, "address", address);
+        set(order, "secret", "s3cret");
+        assertSameBytes(order);
+        assertSameNumbers("Order", "baseId", "baseName", "count", "amount", "paid", "rate", "price",
+                "boxedInt", "boxedLong", "boxedBool", "boxedFloat", "boxedDouble", "remark", "payload",
+                "child", "address", "secret");
+        assertEquals(0, generatedSchema("Order").getFieldNumber("removed"));
+        assertEquals(0, generatedSchema("Order").getFieldNumber("ignoredTransient"));
+
+        // 对象字段为null时不写，基本类型的0也要写
+        assertSameBytes(newInstance("Order"));
+    }
+
+    /** 有 @Tag 时按它的编号和别名 */
+    @Test
+    public void taggedFieldsMatchRuntimeSchema() throws Exception {
+        Object child = newInstance("Child");
+        set(child, "name", "tagged");
+        Object tagged = newInstance("Tagged");
+        set(tagged, "count", 12);
+        set(tagged, "total", 1L << 40);
+        set(tagged, "name", "name");
+        set(tagged, "data", new byte[0]);
+        set(tagged, "child", child);
+        assertSameBytes(tagged);
+        assertSameNumbers("Tagged", "count", "total", "n", "data", "child");
+        assertEquals(20, generatedSchema("Tagged").getFieldNumber("n"));
+        assertSameBytes(newInstance("Tagged"));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void assertSameBytes(Object message) throws Exception {
+        Schema<Object> generated = generatedSchema(message.getClass().getSimpleName());
+        Schema<Object> runtime = (Schema<Object>) RuntimeSchema.getSchema(message.getClass());
+        byte[] expected = ProtostuffIOUtil.toByteArray(message, runtime, LinkedBuffer.allocate(256));
+        byte[] actual = ProtostuffIOUtil.toByteArray(message, generated, LinkedBuffer.allocate(256));
+        assertArrayEquals(expected, actual);
+
+        // 生成的 Schema 读出来的再按 RuntimeSchema 写一次，结果不变
+        Object copy = generated.newMessage();
+        ProtostuffIOUtil.mergeFrom(actual, copy, generated);
+        assertArrayEquals(expected, ProtostuffIOUtil.toByteArray(copy, runtime, LinkedBuffer.allocate(256)));
+    }
+
+    private static void assertSameNumbers(String simpleName, String... names) throws Exception {
+        Schema<Object> generated = generatedSchema(simpleName);
+        Schema<?> runtime = RuntimeSchema.getSchema(loader.loadClass(PACKAGE + "." + simpleName));
+        for (String name : names) {
+            int number = runtime.getFieldNumber(name);
+            assertTrue(simpleName + "." + name + " is not a field", number > 0);
+            assertEquals(simpleName + "." + name, number, generated.getFieldNumber(name));
+            assertEquals(simpleName + "." + number, runtime.getFieldName(number), generated.getFieldName(number));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Schema<Object> generatedSchema(String simpleName) throws Exception {
+        Class<?> schemaClass = loader.loadClass(PACKAGE + "." + simpleName
+                + com.xueershangda.dubbo.serialize.protobuf.ProtobufMessage.SCHEMA_SUFFIX);
+        return (Schema<Object>) schemaClass.getField("INSTANCE").get(null);
+    }
+
+    private static Object newInstance(String simpleName) throws Exception {
+        return loader.loadClass(PACKAGE + "." + simpleName).newInstance();
+    }
+
+    private static void set(Object target, String name, Object value) throws Exception {
+        for (Class<?> cls = target.getClass(); cls != Object.class; cls = cls.getSuperclass()) {
+            try {
+                Field field = cls.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                // 在父类中
+            }
+        }
+        throw new NoSuchFieldException(name);
+    }
+
+    /**
+     * 内存中的源文件
+     */
+    private static final class Source extends SimpleJavaFileObject {
+        private final String code;
+
+        Source(String className, String code) {
+            super(URI.create("string:///" + className.replace('.', '/') + Kind.SOURCE.extension), Kind.SOURCE);
+            this.code = code;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return code;
+        }
+    }
+}